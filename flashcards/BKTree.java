@@ -0,0 +1,143 @@
+package flashcards;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.function.Predicate;
+
+/**
+ * BK-tree of strings keyed on Levenshtein edit distance. Finding the
+ * closest string within a small distance only visits the subtrees the
+ * triangle inequality cannot rule out, which is a small part of the tree
+ * for short distances. Strings are never removed; the owner decides
+ * whether a match is still live and rebuilds the tree when it holds
+ * too many dead strings.
+ */
+final class BKTree {
+    private Node root;
+    private int size;
+
+    /**
+     * One string of the tree. Children are keyed by their distance to it.
+     */
+    private static final class Node {
+        private final String key;
+        private HashMap<Integer, Node> children;
+
+        private Node(String key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * Adds a string unless the tree already holds it.
+     *
+     * @param key String to add.
+     */
+    void add(String key) {
+        if (root == null) {
+            root = new Node(key);
+            size++;
+            return;
+        }
+
+        Node node = root;
+        int[] scratch = new int[2 * (key.length() + 1)];
+        while (true) {
+            int d = distance(key, node.key, scratch);
+            if (d == 0) return;
+
+            if (node.children == null) node.children = new HashMap<>();
+            Node child = node.children.get(d);
+            if (child == null) {
+                node.children.put(d, new Node(key));
+                size++;
+                return;
+            }
+            node = child;
+        }
+    }
+
+    /**
+     * Finds the string closest to the query within a maximum distance.
+     * Of several equally close strings the first one found wins.
+     *
+     * @param query String to match.
+     * @param maxDistance Largest edit distance accepted.
+     * @param live Filter for strings that may still be returned.
+     * @return String The closest live string <b>or</b> null if none is close enough.
+     */
+    String closest(String query, int maxDistance, Predicate<String> live) {
+        if (root == null) return null;
+
+        String best = null;
+        int bestDistance = maxDistance + 1;
+        int[] scratch = new int[2 * (query.length() + 1)];
+        ArrayDeque<Node> pending = new ArrayDeque<>();
+        pending.push(root);
+
+        while (!pending.isEmpty()) {
+            Node node = pending.pop();
+            int d = distance(query, node.key, scratch);
+
+            if (d < bestDistance && live.test(node.key)) {
+                best = node.key;
+                bestDistance = d;
+                if (d == 0) break;
+            }
+            if (node.children == null) continue;
+
+            // By the triangle inequality only children whose distance to this
+            // node is within bestDistance - 1 of d can hold a closer string.
+            int radius = bestDistance - 1;
+            for (int i = Math.max(1, d - radius); i <= d + radius; i++) {
+                Node child = node.children.get(i);
+                if (child != null) pending.push(child);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Number of strings in the tree, live or not.
+     *
+     * @return int The size.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Levenshtein distance between two strings using two rows of the
+     * dynamic programming table. The distance is always computed in full
+     * because the tree search needs exact distances to prune.
+     *
+     * @param a First string, the one the scratch array was sized for.
+     * @param b Second string.
+     * @param scratch Array of at least 2 * (a.length() + 1) ints, reused between calls.
+     * @return int The edit distance.
+     */
+    static int distance(String a, String b, int[] scratch) {
+        int n = a.length();
+        int prev = 0;
+        int cur = n + 1;
+        for (int i = 0; i <= n; i++) {
+            scratch[prev + i] = i;
+        }
+
+        for (int j = 1; j <= b.length(); j++) {
+            char bc = b.charAt(j - 1);
+            scratch[cur] = j;
+
+            for (int i = 1; i <= n; i++) {
+                int cost = a.charAt(i - 1) == bc ? 0 : 1;
+                int v = Math.min(Math.min(scratch[cur + i - 1] + 1, scratch[prev + i] + 1), scratch[prev + i - 1] + cost);
+                scratch[cur + i] = v;
+            }
+
+            int swap = prev;
+            prev = cur;
+            cur = swap;
+        }
+        return scratch[prev + n];
+    }
+}
@@ -0,0 +1,383 @@
+package flashcards;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes the binary deck format. Layout (all integers big-endian):
+ *
+ * MAGIC        4 bytes  "FLCD"
+ * VERSION      int      4
+ * COUNT        int      number of cards
+ * OFFSETS      COUNT x long, file position of each card record
+ * TERMS        TABLE x int, term hash table
+ * DEFINITIONS  TABLE x int, definition hash table
+ * RECORDS      int mistakes,
+ *              varint term length, UTF-8 term,
+ *              varint definition length, UTF-8 definition,
+ *              varint repetitions, varint interval, double ease, long due,
+ *              varint answers, and if answers is not 0:
+ *              double mean answer time, double sum of squared differences
+ *              (milliseconds, see Card.getAnswerM2Millis)
+ *
+ * TABLE is the smallest power of two of at least twice COUNT. The hash
+ * tables are open addressing tables of card number + 1 (0 for an empty
+ * slot) keyed on CardSet.foldHash, so a MappedCardSet can look cards up
+ * without building an index. Mistakes are a fixed width int at the start
+ * of the record so they can be updated in place.
+ *
+ * Version 3 records end after the due time. Version 1 and 2 files have
+ * no hash tables and keep mistakes as a varint after the definition.
+ * Version 1 records end after the mistakes count. All are still readable.
+ *
+ * Files ending in EXTENSION are written in this format. Files are
+ * recognized on import by their magic number, not their name.
+ */
+public final class BinaryDeckFormat {
+    public static final String EXTENSION = ".deck";
+
+    private static final byte[] MAGIC = {'F', 'L', 'C', 'D'};
+    static final int VERSION = 4;
+    static final int HEADER_SIZE = MAGIC.length + 2 * Integer.BYTES;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private BinaryDeckFormat() {
+    }
+
+    /**
+     * Checks whether a path should be exported in the binary format.
+     *
+     * @param path Path of the export file.
+     * @return boolean True if the path ends with the binary deck extension.
+     */
+    public static boolean hasBinaryExtension(String path) {
+        return path.toLowerCase().endsWith(EXTENSION);
+    }
+
+    /**
+     * Checks whether a file starts with the binary deck magic number.
+     *
+     * @param file File to check.
+     * @return boolean True if the file is a binary deck.
+     * @throws IOException If the file cannot be read.
+     */
+    public static boolean isBinaryDeck(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.length() < MAGIC.length) return false;
+
+            byte[] magic = new byte[MAGIC.length];
+            raf.readFully(magic);
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (magic[i] != MAGIC[i]) return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Writes every card of a deck to a binary deck file, replacing
+     * the file if it exists. Records are streamed through a fixed size
+     * buffer and the offset table is filled in once all records are written.
+     *
+     * @param cs Deck to write.
+     * @param file Destination file.
+     * @return int Number of cards written.
+     * @throws IOException If the file cannot be written.
+     */
+    public static int write(CardStore cs, File file) throws IOException {
+        int count = cs.size();
+        int capacity = tableCapacity(count);
+        long[] offsets = new long[count];
+        int[] termTable = new int[capacity];
+        int[] definitionTable = new int[capacity];
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = HEADER_SIZE + (long) count * Long.BYTES + 2L * capacity * Integer.BYTES;
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            channel.position(position);
+
+            for (int i = 0; i < count; i++) {
+                Card c = cs.getCard(i);
+                offsets[i] = position;
+                insert(termTable, i, c.getTerm(), cs, true);
+                insert(definitionTable, i, c.getDefinition(), cs, false);
+
+                if (buffer.remaining() < Integer.BYTES) drain(channel, buffer);
+                buffer.putInt(c.getMistakes());
+                position += Integer.BYTES;
+                position += writeString(channel, buffer, c.getTerm());
+                position += writeString(channel, buffer, c.getDefinition());
+                position += writeVarint(channel, buffer, c.getRepetitions());
+                position += writeVarint(channel, buffer, c.getInterval());
+                position += writeSchedule(channel, buffer, c.getEase(), c.getDue());
+                position += writeAnswerStats(channel, buffer, c);
+            }
+            drain(channel, buffer);
+
+            channel.position(0);
+            buffer.put(MAGIC).putInt(VERSION).putInt(count);
+            for (long offset : offsets) {
+                if (buffer.remaining() < Long.BYTES) drain(channel, buffer);
+                buffer.putLong(offset);
+            }
+            for (int[] table : new int[][] {termTable, definitionTable}) {
+                for (int slot : table) {
+                    if (buffer.remaining() < Integer.BYTES) drain(channel, buffer);
+                    buffer.putInt(slot);
+                }
+            }
+            drain(channel, buffer);
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns the number of slots in each hash table of a deck.
+     *
+     * @param count Number of cards in the deck.
+     * @return int The smallest power of two of at least twice the count.
+     */
+    static int tableCapacity(int count) {
+        return Math.max(2, Integer.highestOneBit(Math.max(1, 2 * count - 1)) << 1);
+    }
+
+    /**
+     * Adds a card to a hash table being written unless an earlier card
+     * has the same key, so lookups find the first card like CardSet does.
+     *
+     * @param table Term or definition table.
+     * @param index Index of the card.
+     * @param key The card's term or definition.
+     * @param cs Deck being written, to compare keys of earlier cards.
+     * @param byTerm True for the term table, false for the definition table.
+     */
+    private static void insert(int[] table, int index, String key, CardStore cs, boolean byTerm) {
+        int mask = table.length - 1;
+        int slot = CardSet.foldHash(key) & mask;
+        for (; table[slot] != 0; slot = (slot + 1) & mask) {
+            Card other = cs.getCard(table[slot] - 1);
+            if ((byTerm ? other.getTerm() : other.getDefinition()).equalsIgnoreCase(key)) return;
+        }
+        table[slot] = index + 1;
+    }
+
+    /**
+     * Reads a binary deck file through a read-only memory map and merges
+     * its cards into a CardSet with the usual import rules.
+     *
+     * @param file Binary deck file.
+     * @param cs CardSet that receives the cards.
+     * @return int Number of cards imported.
+     * @throws IOException If the file cannot be read or is not a valid binary deck.
+     */
+    public static int read(File file, CardSet cs) throws IOException {
+        return cs.addAll(readCards(file));
+    }
+
+    /**
+     * Reads every card of a binary deck file through a read-only memory map.
+     *
+     * @param file Binary deck file.
+     * @return List The cards in file order.
+     * @throws IOException If the file cannot be read or is not a valid binary deck.
+     */
+    public static List<Card> readCards(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Binary deck is too large to map: " + file);
+            }
+
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int version = readVersion(map, file);
+            int count = readCount(map, file);
+            List<Card> cards = new ArrayList<>(count);
+            byte[] scratch = new byte[256];
+
+            try {
+                for (int i = 0; i < count; i++) {
+                    map.position(Math.toIntExact(map.getLong(HEADER_SIZE + i * Long.BYTES)));
+
+                    int mistakes = version >= 3 ? map.getInt() : 0;
+                    String term = readString(map, scratch);
+                    String definition = readString(map, scratch);
+                    if (version < 3) mistakes = readVarint(map);
+
+                    if (version == 1) {
+                        cards.add(new Card(term, definition, mistakes));
+                        continue;
+                    }
+
+                    Card c = new Card(term, definition, mistakes, readVarint(map), readVarint(map),
+                            map.getDouble(), map.getLong());
+                    if (version >= 4) {
+                        int answers = readVarint(map);
+                        if (answers > 0) c.setAnswerStats(answers, map.getDouble(), map.getDouble());
+                    }
+                    cards.add(c);
+                }
+            } catch (BufferUnderflowException | IllegalArgumentException | ArithmeticException e) {
+                throw new IOException("Corrupt binary deck: " + file, e);
+            }
+
+            return cards;
+        }
+    }
+
+    /**
+     * Validates the magic number of a mapped binary deck and returns its version.
+     *
+     * @param map Mapped deck file.
+     * @param file File the map belongs to (for error messages).
+     * @return int The format version of the deck.
+     * @throws IOException If the header is not a supported binary deck header.
+     */
+    static int readVersion(ByteBuffer map, File file) throws IOException {
+        if (map.limit() < HEADER_SIZE) throw new IOException("Not a binary deck: " + file);
+
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (map.get(i) != MAGIC[i]) throw new IOException("Not a binary deck: " + file);
+        }
+
+        int version = map.getInt(MAGIC.length);
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported binary deck version " + version + ": " + file);
+        }
+        return version;
+    }
+
+    /**
+     * Reads the card count of a mapped binary deck and checks that the
+     * offset table fits in the file.
+     *
+     * @param map Mapped deck file.
+     * @param file File the map belongs to (for error messages).
+     * @return int The number of cards in the deck.
+     * @throws IOException If the offset table runs past the end of the file.
+     */
+    static int readCount(ByteBuffer map, File file) throws IOException {
+        int count = map.getInt(MAGIC.length + Integer.BYTES);
+        if (count < 0 || HEADER_SIZE + (long) count * Long.BYTES > map.limit()) {
+            throw new IOException("Corrupt binary deck: " + file);
+        }
+        return count;
+    }
+
+    /**
+     * Reads a length-prefixed UTF-8 string. Short strings are decoded
+     * through the scratch array to avoid a temporary array per string.
+     *
+     * @param buffer Buffer positioned at the length prefix.
+     * @param scratch Reusable array for short strings.
+     * @return String The decoded string.
+     */
+    private static String readString(ByteBuffer buffer, byte[] scratch) {
+        int length = readVarint(buffer);
+        if (length > buffer.remaining()) throw new IllegalArgumentException("String runs past end of deck");
+
+        byte[] bytes = length <= scratch.length ? scratch : new byte[length];
+        buffer.get(bytes, 0, length);
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a length-prefixed UTF-8 string.
+     *
+     * @return int Number of bytes written.
+     */
+    private static int writeString(FileChannel channel, ByteBuffer buffer, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        int written = writeVarint(channel, buffer, bytes.length);
+
+        if (bytes.length > buffer.remaining()) drain(channel, buffer);
+        if (bytes.length > buffer.capacity()) {
+            channel.write(ByteBuffer.wrap(bytes));
+        } else {
+            buffer.put(bytes);
+        }
+        return written + bytes.length;
+    }
+
+    /**
+     * Writes a non-negative int as an unsigned LEB128 varint.
+     *
+     * @return int Number of bytes written.
+     */
+    private static int writeVarint(FileChannel channel, ByteBuffer buffer, int value) throws IOException {
+        if (buffer.remaining() < 5) drain(channel, buffer);
+
+        int written = 1;
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+            written++;
+        }
+        buffer.put((byte) value);
+        return written;
+    }
+
+    /**
+     * Writes the fixed width part of the review schedule.
+     *
+     * @return int Number of bytes written.
+     */
+    private static int writeSchedule(FileChannel channel, ByteBuffer buffer, double ease, long due) throws IOException {
+        if (buffer.remaining() < Double.BYTES + Long.BYTES) drain(channel, buffer);
+
+        buffer.putDouble(ease).putLong(due);
+        return Double.BYTES + Long.BYTES;
+    }
+
+    /**
+     * Writes the answer time statistics of a card. Cards that were never
+     * timed only take the answers varint.
+     *
+     * @return int Number of bytes written.
+     */
+    private static int writeAnswerStats(FileChannel channel, ByteBuffer buffer, Card c) throws IOException {
+        int written = writeVarint(channel, buffer, c.getAnswers());
+        if (c.getAnswers() == 0) return written;
+
+        if (buffer.remaining() < 2 * Double.BYTES) drain(channel, buffer);
+        buffer.putDouble(c.getMeanAnswerMillis()).putDouble(c.getAnswerM2Millis());
+        return written + 2 * Double.BYTES;
+    }
+
+    /**
+     * Reads an unsigned LEB128 varint.
+     *
+     * @param buffer Buffer positioned at the varint.
+     * @return int The decoded value.
+     */
+    private static int readVarint(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                if (value < 0) throw new IllegalArgumentException("Varint out of range");
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    /**
+     * Writes everything in the buffer to the channel and clears it.
+     */
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+}
@@ -1,9 +1,23 @@
 package flashcards;
 
 public final class Card {
+    public static final double DEFAULT_EASE = 2.5;
+
     private final String term;
     private final String definition;
     private int mistakes;
+    private int repetitions;
+    private int interval;
+    private double ease;
+    private long due;
+    private int answers;        // Timed answers so far.
+    private double meanMillis;  // Running mean of the answer times.
+    private double m2Millis;    // Sum of squared differences from the mean (Welford).
+
+    CardSet owner;  // The CardSet this card belongs to, or null.
+    long sequence;  // Order in which the owner received this card, or a view's index in its store.
+    int epoch;      // Owner's statistics epoch when mistakes was last set.
+    CardWriteBack writeBack; // Store this view writes its changes back to, or null.
 
     /**
      * Card constructor. Sets the private and final fields:
@@ -15,9 +29,41 @@ public final class Card {
      * @param mistakes An integer count of the number of mistakes for this card.
      */
     public Card(String term, String definition, int mistakes) {
+        this(term, definition, mistakes, 0, 0, DEFAULT_EASE, 0);
+    }
+
+    /**
+     * Card constructor including the spaced repetition schedule.
+     *
+     * @param term A string of any length representing the term.
+     * @param definition A string of any length representing the definition.
+     * @param mistakes An integer count of the number of mistakes for this card.
+     * @param repetitions Number of correct reviews in a row.
+     * @param interval Days between the last review and the next one.
+     * @param ease Ease factor that stretches the interval after each correct review.
+     * @param due Time the card is due for review, in milliseconds since the epoch.
+     */
+    public Card(String term, String definition, int mistakes, int repetitions, int interval, double ease, long due) {
         this.term = term;
         this.definition = definition;
         this.mistakes = mistakes;
+        this.repetitions = repetitions;
+        this.interval = interval;
+        this.ease = ease;
+        this.due = due;
+    }
+
+    /**
+     * Copy constructor. The new card has the same term, definition,
+     * mistakes and review schedule as the given card.
+     *
+     * @param c Card to copy.
+     */
+    public Card(Card c) {
+        this(c.getTerm(), c.getDefinition(), c.getMistakes(), c.getRepetitions(), c.getInterval(), c.getEase(), c.getDue());
+        this.answers = c.answers;
+        this.meanMillis = c.meanMillis;
+        this.m2Millis = c.m2Millis;
     }
 
     /**
@@ -39,18 +85,169 @@ public final class Card {
     }
 
     /**
-     * Gets the number of mistakes for this card instance.
+     * Gets the number of mistakes for this card instance. A count set
+     * before the owning CardSet's statistics were reset reads as 0.
      *
      * @return int The number of mistakes.
      */
-    public int getMistakes() { return mistakes; }
+    public int getMistakes() {
+        return owner == null || epoch == owner.getEpoch() ? mistakes : 0;
+    }
 
     /**
-     * Sets the number of mistakes for this card instance.
+     * Sets the number of mistakes for this card instance. If the card
+     * belongs to a CardSet, the CardSet's hardest card ranking is updated.
+     * If it is a view of a packed CardStore, the count is written back.
      *
      * @param mistakes Number of mistakes to set.
      */
-    public void setMistakes(int mistakes) { this.mistakes = mistakes; }
+    public void setMistakes(int mistakes) {
+        if (owner == null) {
+            this.mistakes = mistakes;
+            if (writeBack != null) writeBack.mistakesChanged(this);
+        } else {
+            owner.updateMistakes(this, mistakes);
+        }
+    }
+
+    /**
+     * Stores a mistakes count without notifying the owner. Only the owning
+     * CardSet calls this, after taking the card out of its ranking.
+     *
+     * @param mistakes Number of mistakes to store.
+     * @param epoch Statistics epoch the count belongs to.
+     */
+    void storeMistakes(int mistakes, int epoch) {
+        this.mistakes = mistakes;
+        this.epoch = epoch;
+    }
+
+    /**
+     * Gets the stored mistakes count, whatever epoch it belongs to.
+     *
+     * @return int The number of mistakes last stored.
+     */
+    int storedMistakes() {
+        return mistakes;
+    }
+
+    /**
+     * Gets the number of correct reviews in a row for this card instance.
+     *
+     * @return int The number of repetitions.
+     */
+    public int getRepetitions() { return repetitions; }
+
+    /**
+     * Gets the review interval of this card instance.
+     *
+     * @return int Days between the last review and the next one.
+     */
+    public int getInterval() { return interval; }
+
+    /**
+     * Gets the ease factor of this card instance.
+     *
+     * @return double The ease factor.
+     */
+    public double getEase() { return ease; }
+
+    /**
+     * Gets the time this card instance is due for review.
+     *
+     * @return long Due time in milliseconds since the epoch.
+     */
+    public long getDue() { return due; }
+
+    /**
+     * Sets the review schedule of this card instance. If the card belongs
+     * to a CardSet, the CardSet's listener is told about the change; a
+     * view writes the schedule back to its store.
+     *
+     * @param repetitions Number of correct reviews in a row.
+     * @param interval Days between the last review and the next one.
+     * @param ease Ease factor that stretches the interval after each correct review.
+     * @param due Time the card is due for review, in milliseconds since the epoch.
+     */
+    public void setSchedule(int repetitions, int interval, double ease, long due) {
+        if (owner != null) owner.beforeChange(this);
+        this.repetitions = repetitions;
+        this.interval = interval;
+        this.ease = ease;
+        this.due = due;
+        if (owner != null) owner.scheduleChanged(this);
+        else if (writeBack != null) writeBack.scheduleChanged(this);
+    }
+
+    /**
+     * Gets the number of timed answers given for this card instance.
+     *
+     * @return int The number of answers timed so far.
+     */
+    public int getAnswers() { return answers; }
+
+    /**
+     * Gets the mean time taken to answer this card instance.
+     *
+     * @return double Mean answer time in milliseconds, 0 if no answer was timed.
+     */
+    public double getMeanAnswerMillis() { return meanMillis; }
+
+    /**
+     * Gets the sample standard deviation of the answer times of this card instance.
+     *
+     * @return double Standard deviation in milliseconds, 0 if fewer than two answers were timed.
+     */
+    public double getAnswerStdDevMillis() {
+        return answers < 2 ? 0 : Math.sqrt(m2Millis / (answers - 1));
+    }
+
+    /**
+     * Gets the sum of squared differences of the answer times from their
+     * mean, the running state the variance is derived from. Stored in
+     * deck files so the statistics survive a round trip exactly.
+     *
+     * @return double Sum of squared differences in square milliseconds.
+     */
+    double getAnswerM2Millis() { return m2Millis; }
+
+    /**
+     * Adds one answer time to the running statistics of this card
+     * instance with Welford's update, so the mean and variance are kept
+     * in three fields whatever the number of answers. If the card belongs
+     * to a CardSet, the CardSet's listener is told about the change; a
+     * view writes the statistics back to its store.
+     *
+     * @param nanos Time taken to answer, in nanoseconds from System.nanoTime.
+     */
+    public void recordAnswerTime(long nanos) {
+        if (owner != null) owner.beforeChange(this);
+        double millis = nanos / 1e6;
+        answers++;
+        double delta = millis - meanMillis;
+        meanMillis += delta / answers;
+        m2Millis += delta * (millis - meanMillis);
+        if (owner != null) owner.answerStatsChanged(this);
+        else if (writeBack != null) writeBack.answerStatsChanged(this);
+    }
+
+    /**
+     * Sets the answer time statistics of this card instance, as read from a
+     * deck file. If the card belongs to a CardSet, the CardSet's listener is
+     * told about the change; a view writes the statistics back to its store.
+     *
+     * @param answers Number of timed answers.
+     * @param meanMillis Mean answer time in milliseconds.
+     * @param m2Millis Sum of squared differences from the mean, see getAnswerM2Millis.
+     */
+    void setAnswerStats(int answers, double meanMillis, double m2Millis) {
+        if (owner != null) owner.beforeChange(this);
+        this.answers = answers;
+        this.meanMillis = meanMillis;
+        this.m2Millis = m2Millis;
+        if (owner != null) owner.answerStatsChanged(this);
+        else if (writeBack != null) writeBack.answerStatsChanged(this);
+    }
 
     /**
      * Function is for debugging purposes. Is not used within
@@ -1,32 +1,93 @@
 package flashcards;
 
+import java.lang.invoke.VarHandle;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
 
-public class CardSet {
-    private final ArrayList<Card> cards;
+public class CardSet implements MutableCardStore {
+    private static final int MAX_TYPOS = 3;
+    private static final int MIN_TREE_REBUILD = 1024;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private Card[] cards;             // Cards in deck order; slots past size are null.
+    private int size;
+    private boolean cardsShared;      // A snapshot holds the cards array, so it is copied before a removal.
+    private final CopyOnWriteArrayList<CardSetSnapshot> snapshots; // Open snapshots, told before a card changes.
+    private final HashMap<String, Card> termIndex;
+    private final HashMap<String, Card> definitionIndex;
+    private final TreeSet<Card> ranking; // Cards with mistakes, most mistakes first.
+    private BKTree definitionTree;       // Case-folded definitions; built on the first approximate lookup, then kept up to date.
+    private SearchIndex searchIndex;     // Words of terms and definitions; built on the first search, then kept up to date.
+    private WeightedCardSampler sampler; // Mistake weights by index; built on the first weighted draw, dropped when cards move.
+    private ReviewScheduler scheduler;   // Cards by due time; built on the first review, then kept up to date.
     private final Random rand;
+    private CardSetListener listener;
+    private final HashMap<String, ArrayDeque<Card>> shadowedDefinitions; // Cards whose definition was already indexed, in deck order.
+    private int epoch;                // Bumped by resetMistakes to zero every card at once.
+    private final LinkedHashMap<String, String> changedTerms; // Case-folded term to term of every card changed since the last save.
+    private boolean resetSinceSave;
+    private long nextSequence;
+
+    // Lookup and scan counters. LongAdders because the quiz server looks
+    // cards up from many threads under a shared read lock.
+    private final LongAdder termLookups = new LongAdder();
+    private final LongAdder definitionLookups = new LongAdder();
+    private final LongAdder approximateLookups = new LongAdder();
+    private final LongAdder scans = new LongAdder();
 
     /**
-     * Blank CardSet constructor. It initializes the cards ArrayList to an
-     * empty ArrayList and initializes the Random number generator.
+     * Blank CardSet constructor. It initializes the cards array to an
+     * empty array and initializes the Random number generator.
      */
     public CardSet() {
-        this.cards = new ArrayList<>();
+        this.cards = new Card[INITIAL_CAPACITY];
+        this.snapshots = new CopyOnWriteArrayList<>();
+        this.termIndex = new HashMap<>();
+        this.definitionIndex = new HashMap<>();
+        this.shadowedDefinitions = new HashMap<>();
+        this.changedTerms = new LinkedHashMap<>();
+        this.ranking = new TreeSet<>(CardSet::compareByMistakes);
         this.rand = new Random();
     }
 
     /**
-     * CardSet constructor. Initializes the cards ArrayList and adds cards
-     * to the ArrayList from the input CardSet.
+     * CardSet constructor. Initializes the cards array and adds cards
+     * to the array from the input CardSet.
+     *
+     * This is a deep copy on purpose: a card belongs to one CardSet, which
+     * keeps its indexes, ranking and statistics epoch in step with it, so
+     * two CardSets cannot share card objects. For a read-only copy, use
+     * snapshot(), which is O(1). The arrays and indexes are sized for the
+     * whole deck up front so the copy never grows or rehashes them.
      *
      * @param cs All cards in this CardSet will be added to the cards instance
      */
     public CardSet(CardSet cs) {
-        this.cards = new ArrayList<>();
+        this.cards = new Card[Math.max(INITIAL_CAPACITY, cs.size())];
+        this.snapshots = new CopyOnWriteArrayList<>();
+        this.termIndex = new HashMap<>(indexCapacity(cs.size()));
+        this.definitionIndex = new HashMap<>(indexCapacity(cs.size()));
+        this.shadowedDefinitions = new HashMap<>();
+        this.changedTerms = new LinkedHashMap<>();
+        this.ranking = new TreeSet<>(CardSet::compareByMistakes);
 
         for (int i = 0; i < cs.size(); i++) {
-            addCard(cs.getCard(i).getTerm(), cs.getCard(i).getDefinition(), cs.getCard(i).getMistakes());
+            append(new Card(cs.getCard(i)));
         }
 
         this.rand = new Random();
@@ -35,27 +96,212 @@ public class CardSet {
     /**
      * Adds a card to the deck. Although cards are custom objects,
      * the fields term and definition are private and final to avoid
-     * issues with object references.
+     * issues with object references. The term and definition indexes
+     * are updated so the card can be found without scanning the deck.
      *
      * @param term String input representing the term of the card to be added.
      * @param definition String input representing the definition of the card to be added.
+     * @param mistakes An integer count of the number of mistakes for this card.
      */
+    @Override
     public void addCard(String term, String definition, int mistakes) {
-        cards.add(new Card(term, definition, mistakes));
+        append(new Card(term, definition, mistakes));
+    }
+
+    /**
+     * Appends a card object to the deck, indexes it by term and definition
+     * and adds it to the hardest card ranking if it has mistakes.
+     *
+     * @param c Card to be added. It must not belong to another CardSet.
+     */
+    private void append(Card c) {
+        int mistakes = c.getMistakes();
+
+        c.owner = this;
+        c.sequence = nextSequence++;
+        c.storeMistakes(mistakes, epoch);
+
+        if (size == cards.length) {
+            cards = Arrays.copyOf(cards, size + (size >> 1));
+            cardsShared = false;
+        }
+        cards[size++] = c;
+        termIndex.putIfAbsent(foldCase(c.getTerm()), c);
+        String definitionKey = foldCase(c.getDefinition());
+        if (definitionIndex.putIfAbsent(definitionKey, c) != null) {
+            shadowedDefinitions.computeIfAbsent(definitionKey, k -> new ArrayDeque<>()).add(c);
+        }
+        if (definitionTree != null) definitionTree.add(definitionKey);
+        if (searchIndex != null) searchIndex.add(c);
+        sampler = null;
+        if (scheduler != null) scheduler.add(c);
+        if (mistakes > 0) ranking.add(c);
+        markChanged(c);
+        if (listener != null) listener.cardAdded(c);
+    }
+
+    /**
+     * Adds a card object exactly as given, without the duplicate checks of
+     * the import rules. Used to restore a deck that was already consistent
+     * when it was saved.
+     *
+     * @param c Card to be added. It must not belong to another CardSet.
+     */
+    void restoreCard(Card c) {
+        append(c);
+    }
+
+    /**
+     * Takes a card out of the indexes and the ranking and detaches it from
+     * this CardSet. The caller removes it from the cards array. If the
+     * card was the definition index entry and another card shares its
+     * definition, the earliest such card takes its place.
+     *
+     * @param c Card being removed.
+     */
+    private void unindex(Card c) {
+        beforeChange(c);
+        if (c.getMistakes() > 0) ranking.remove(c);
+        c.storeMistakes(c.getMistakes(), 0);
+        c.owner = null;
+
+        markChanged(c);
+        if (listener != null) listener.cardRemoved(c);
+        termIndex.remove(foldCase(c.getTerm()), c);
+        if (searchIndex != null) searchIndex.remove(c);
+        sampler = null;
+        if (scheduler != null) scheduler.remove(c);
+
+        String definitionKey = foldCase(c.getDefinition());
+        ArrayDeque<Card> shadowed = shadowedDefinitions.get(definitionKey);
+        if (definitionIndex.remove(definitionKey, c)) {
+            if (shadowed != null) definitionIndex.put(definitionKey, shadowed.poll());
+        } else if (shadowed != null) {
+            shadowed.remove(c);
+        }
+        if (shadowed != null && shadowed.isEmpty()) shadowedDefinitions.remove(definitionKey);
+
+        // Removed definitions stay in the BK-tree; drop it once they outnumber
+        // the live ones and let the next approximate lookup rebuild it.
+        if (definitionTree != null && definitionTree.size() > 2 * definitionIndex.size() + MIN_TREE_REBUILD) {
+            definitionTree = null;
+        }
     }
 
     /**
      * Extension of the addCard function. Takes a CardSet and adds all the cards in the
-     * parameter to THIS CardSet.
+     * parameter to THIS CardSet. The cards are copied, as in the copy constructor.
      *
      * @param cs CardSet with cards to be added to THIS CardSet.
      */
     public void addCards(CardSet cs) {
+        if (size + cs.size() > cards.length) {
+            cards = Arrays.copyOf(cards, size + cs.size());
+            cardsShared = false;
+        }
         for (int i = 0; i < cs.size(); i++) {
-            addCard(cs.getCard(i).getTerm(), cs.getCard(i).getDefinition(), cs.getCard(i).getMistakes());
+            append(new Card(cs.getCard(i)));
         }
     }
 
+    /**
+     * Adds a batch of cards using the import rules: a card whose term
+     * exists with a different definition replaces the old card, a card
+     * whose term exists with the same definition is skipped but still
+     * counted, and a card whose definition belongs to another card is
+     * skipped. Each card is checked against the indexes once and replaced
+     * cards are dropped in a single compaction pass at the end of the batch
+     * instead of one array shift per card.
+     *
+     * @param batch Cards to add, in file order. The objects are added as is.
+     * @return int Number of cards from the batch that were imported.
+     */
+    public int addAll(Collection<Card> batch) {
+        Set<Card> replaced = Collections.newSetFromMap(new IdentityHashMap<>());
+        int numMerged = 0;
+
+        for (Card c : batch) {
+            Card existing = getCardByTerm(c.getTerm());
+
+            if (existing != null && !existing.getDefinition().equalsIgnoreCase(c.getDefinition())) {
+                unindex(existing);
+                replaced.add(existing);
+            } else if (existing != null) {
+                numMerged++;
+                continue;
+            } else if (getCardByDefinition(c.getDefinition()) != null) {
+                continue;
+            }
+
+            append(c);
+            numMerged++;
+        }
+
+        compact(replaced);
+        return numMerged;
+    }
+
+    /**
+     * Removes the cards with the given terms (IGNORES CASE). Terms without
+     * a card are skipped. The cards array is compacted once for the whole
+     * batch, so removing many cards costs one pass over the deck instead
+     * of one per card.
+     *
+     * @param terms Terms of the cards to remove.
+     * @return int Number of cards removed.
+     */
+    public int removeAll(Collection<String> terms) {
+        Set<Card> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        for (String term : terms) {
+            Card c = getCardByTerm(term);
+            if (c == null) continue;
+            unindex(c);
+            removed.add(c);
+        }
+
+        compact(removed);
+        return removed.size();
+    }
+
+    /**
+     * Sets the mistakes of the cards with the given terms (IGNORES CASE).
+     * Terms without a card are skipped.
+     *
+     * @param mistakes Term to its new number of mistakes.
+     * @return int Number of cards updated.
+     */
+    public int updateMistakes(Map<String, Integer> mistakes) {
+        int numUpdated = 0;
+
+        for (Map.Entry<String, Integer> entry : mistakes.entrySet()) {
+            Card c = getCardByTerm(entry.getKey());
+            if (c == null) continue;
+            updateMistakes(c, entry.getValue());
+            numUpdated++;
+        }
+        return numUpdated;
+    }
+
+    /**
+     * Drops unindexed cards from the cards array in one pass, keeping the
+     * order of the others.
+     *
+     * @param removed Cards to drop, already taken out of the indexes.
+     */
+    private void compact(Set<Card> removed) {
+        if (removed.isEmpty()) return;
+
+        Card[] writable = writableCards();
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (!removed.contains(writable[i])) writable[kept++] = writable[i];
+        }
+        Arrays.fill(writable, kept, size, null);
+        size = kept;
+        scans.increment();
+    }
+
     /**
      * Removes a card from the deck. Outputs an error to System.out if
      * the card does not exist.
@@ -63,65 +309,534 @@ public class CardSet {
      * @param term String for the term of the card to be removed.
      */
     public void removeCard(String term) {
-        if (getCardByTerm(term) == null) {
+        Card c = getCardByTerm(term);
+
+        if (c == null) {
             System.out.println("Can't remove \"" + term + "\": there is no such card.");
         } else {
-            cards.remove(getCardByTerm(term));
+            // The binary search is cheap; the shift below is still a pass over the deck.
+            int index = indexOf(c);
+            scans.increment();
+
+            Card[] writable = writableCards();
+            System.arraycopy(writable, index + 1, writable, index, size - index - 1);
+            writable[--size] = null;
+            unindex(c);
         }
     }
 
     /**
      * Returns a card by index.
      *
-     * @param index Index of a card within the cards ArrayList.
+     * @param index Index of a card within the cards array.
      * @return Card The card at the index.
      */
+    @Override
     public Card getCard(int index) {
-        return cards.get(index);
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        return cards[index];
     }
 
     /**
      * Returns a card by term (IGNORES CASE).
      *
-     * @param term Term of a card within the cards ArrayList.
+     * @param term Term of a card within the cards array.
      * @return Card The card with the term <b>or</b> null if no card was found.
      */
+    @Override
     public Card getCardByTerm(String term) {
-        for (Card c : cards) {
-            if (c.getTerm().equalsIgnoreCase(term)) return c;
-        }
-        return null;
+        termLookups.increment();
+        return termIndex.get(foldCase(term));
     }
 
     /**
      * Returns a card by definition (IGNORES CASE).
      *
-     * @param definition Definition of a card within the cards ArrayList.
+     * @param definition Definition of a card within the cards array.
      * @return Card The card with the definition <b>or</b> null if no card was found.
      */
+    @Override
     public Card getCardByDefinition(String definition) {
-        for (Card c : cards) {
-            if (c.getDefinition().equalsIgnoreCase(definition)) return c;
+        definitionLookups.increment();
+        return definitionIndex.get(foldCase(definition));
+    }
+
+    /**
+     * Returns the card whose definition is closest to the given text, for
+     * answers with a typo or two. Allows one edit per four characters, up
+     * to MAX_TYPOS, and nothing for very short texts. Uses the BK-tree of
+     * definitions, so only a small part of the deck is compared. The tree
+     * is built on the first lookup, so adding cards costs nothing extra
+     * until approximate matching is actually used.
+     *
+     * @param definition Text that may be a misspelled definition (IGNORES CASE).
+     * @return Card The card with the closest definition <b>or</b> null if none is close enough.
+     */
+    public Card getCardByApproximateDefinition(String definition) {
+        approximateLookups.increment();
+        String key = foldCase(definition);
+        int maxDistance = maxTypos(key);
+        if (maxDistance == 0) return null;
+
+        if (definitionTree == null) {
+            definitionTree = new BKTree();
+            scans.increment();
+            for (String definitionKey : definitionIndex.keySet()) {
+                definitionTree.add(definitionKey);
+            }
         }
-        return null;
+        String closest = definitionTree.closest(key, maxDistance, definitionIndex::containsKey);
+        return closest == null ? null : definitionIndex.get(closest);
     }
 
     /**
-     * Returns a random card from the cards ArrayList based on
+     * Checks whether a text is the given definition with a typo or two,
+     * allowing the same number of edits as getCardByApproximateDefinition.
+     *
+     * @param text Text that may be a misspelled definition (IGNORES CASE).
+     * @param definition The definition it is compared to.
+     * @return boolean True if the text is close enough to the definition.
+     */
+    static boolean isApproximately(String text, String definition) {
+        String key = foldCase(text);
+        String target = foldCase(definition);
+        int maxDistance = maxTypos(key);
+
+        // The length difference is a lower bound on the distance.
+        if (maxDistance == 0 || Math.abs(key.length() - target.length()) > maxDistance) return false;
+        return BKTree.distance(key, target, new int[2 * (key.length() + 1)]) <= maxDistance;
+    }
+
+    /**
+     * Number of typos tolerated in a text: one per four characters, up to MAX_TYPOS.
+     *
+     * @param key Case-folded text.
+     * @return int The largest edit distance still counted as a typo.
+     */
+    private static int maxTypos(String key) {
+        return Math.min(MAX_TYPOS, key.length() / 4);
+    }
+
+    /**
+     * Finds the cards whose term or definition contain every word of a
+     * query, where each query word may be the start of a longer word.
+     * The first search builds an inverted index of the deck's words,
+     * which is then kept up to date as cards are added and removed.
+     *
+     * @param query Words to look for (IGNORES CASE).
+     * @return SearchResults The matching cards, best match first.
+     */
+    public SearchResults search(String query) {
+        if (searchIndex == null || searchIndex.isStale()) {
+            searchIndex = new SearchIndex(this);
+            scans.increment();
+        }
+        return searchIndex.search(query);
+    }
+
+    /**
+     * Returns a random card from the cards array based on
      * a random number generator initialized in the constructor.
      *
-     * @return Card Random card from the cards ArrayList.
+     * @return Card Random card from the cards array.
      */
     public Card getRandomCard() {
-        return cards.get(rand.nextInt(size()));
+        return cards[rand.nextInt(size)];
+    }
+
+    /**
+     * Returns a random card, drawn with a probability that grows with its
+     * mistakes (see WeightedCardSampler). The sampler is built on the first
+     * draw after cards were added or removed; after that, draws and
+     * mistake updates cost O(log n).
+     *
+     * @return Card Random card, weighted by mistakes.
+     * @throws java.util.NoSuchElementException If the deck is empty.
+     */
+    public Card getWeightedRandomCard() {
+        if (sampler == null) {
+            sampler = new WeightedCardSampler(this);
+            scans.increment();
+        }
+        return cards[sampler.sample()];
+    }
+
+    /**
+     * Returns the spaced repetition scheduler of this CardSet. It is built
+     * on the first call and then kept up to date as cards are added,
+     * removed and rescheduled, so later reviews start without a pass over
+     * the deck.
+     *
+     * @return ReviewScheduler The scheduler of this CardSet.
+     */
+    public ReviewScheduler getReviewScheduler() {
+        if (scheduler == null) {
+            scheduler = new ReviewScheduler(this);
+            scans.increment();
+        }
+        return scheduler;
+    }
+
+    /**
+     * Finds the index of one of this CardSet's cards. The cards array is
+     * in the order the cards were received, so this is a binary search on
+     * the sequence numbers.
+     *
+     * @param c Card belonging to this CardSet.
+     * @return int Index of the card within the cards array.
+     */
+    private int indexOf(Card c) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (cards[mid].sequence < c.sequence) {
+                low = mid + 1;
+            } else if (cards[mid].sequence > c.sequence) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        throw new IllegalStateException("Card \"" + c.getTerm() + "\" is not in the deck.");
+    }
+
+    /**
+     * Returns the cards tied for the most mistakes, in deck order.
+     *
+     * @return List The hardest cards, empty if no card has mistakes.
+     */
+    @Override
+    public List<Card> getHardestCards() {
+        List<Card> hardest = new ArrayList<>();
+
+        for (Card c : ranking) {
+            if (!hardest.isEmpty() && c.getMistakes() != hardest.get(0).getMistakes()) break;
+            hardest.add(c);
+        }
+        return hardest;
+    }
+
+    /**
+     * Returns up to k cards with the most mistakes, most mistakes first.
+     * Reads the head of the ranking, which costs O(k log n) at most.
+     *
+     * @param k Maximum number of cards to return.
+     * @return List The hardest cards, leaving out cards without mistakes.
+     */
+    @Override
+    public List<Card> getHardestCards(int k) {
+        List<Card> hardest = new ArrayList<>(Math.min(k, ranking.size()));
+
+        for (Card c : ranking) {
+            if (hardest.size() == k) break;
+            hardest.add(c);
+        }
+        return hardest;
+    }
+
+    /**
+     * Returns up to k cards with the slowest mean answer time, slowest
+     * first and ties in deck order. Answer times change on every answer,
+     * so there is no ranking to keep up to date; this is one pass over the
+     * deck with a heap of k cards.
+     *
+     * @param k Maximum number of cards to return.
+     * @return List The slowest cards, leaving out cards without timed answers.
+     */
+    public List<Card> getSlowestCards(int k) {
+        // Fastest of the k kept so far on top.
+        Comparator<Card> fastestFirst = (a, b) -> {
+            int byMean = Double.compare(a.getMeanAnswerMillis(), b.getMeanAnswerMillis());
+            return byMean != 0 ? byMean : Long.compare(b.sequence, a.sequence);
+        };
+        PriorityQueue<Card> heap = new PriorityQueue<>(fastestFirst);
+
+        for (int i = 0; i < size && k > 0; i++) {
+            Card c = cards[i];
+            if (c.getAnswers() == 0) continue;
+            if (heap.size() < k) {
+                heap.add(c);
+            } else if (fastestFirst.compare(c, heap.peek()) > 0) {
+                heap.poll();
+                heap.add(c);
+            }
+        }
+        scans.increment();
+
+        List<Card> slowest = new ArrayList<>(heap);
+        slowest.sort(fastestFirst.reversed());
+        return slowest;
+    }
+
+    /**
+     * Sets the mistakes of every card to 0 in O(1). Instead of touching each
+     * card, the statistics epoch is advanced so counts stored under the old
+     * epoch read as 0, and the ranking is emptied.
+     */
+    public void resetMistakes() {
+        epoch++;
+        ranking.clear();
+        sampler = null;
+        resetSinceSave = true;
+        if (listener != null) listener.mistakesReset();
+    }
+
+    /**
+     * Checks whether the deck changed since it was last saved or loaded.
+     *
+     * @return boolean True if a card was added, removed or updated, or mistakes were reset.
+     */
+    public boolean hasUnsavedChanges() {
+        return resetSinceSave || !changedTerms.isEmpty();
+    }
+
+    /**
+     * Marks the deck as saved. Changes made from now on are what the
+     * next patch export writes.
+     */
+    public void markSaved() {
+        changedTerms.clear();
+        resetSinceSave = false;
+    }
+
+    /**
+     * Gets the terms of every card added, removed or updated since the
+     * last save, in the order they first changed.
+     *
+     * @return Collection The changed terms, as they were spelled when they changed.
+     */
+    Collection<String> getChangedTerms() {
+        return changedTerms.values();
+    }
+
+    /**
+     * Checks whether resetMistakes was called since the last save.
+     *
+     * @return boolean True if every card's mistakes were reset since the last save.
+     */
+    boolean wereMistakesReset() {
+        return resetSinceSave;
+    }
+
+    /**
+     * Records that a card changed since the last save.
+     *
+     * @param c Card that was added, removed or updated.
+     */
+    private void markChanged(Card c) {
+        changedTerms.putIfAbsent(foldCase(c.getTerm()), c.getTerm());
+    }
+
+    /**
+     * Sets the listener that is told about every change to this CardSet.
+     *
+     * @param listener The listener <b>or</b> null to stop listening.
+     */
+    public void setListener(CardSetListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Gets the lookup and scan counters of this CardSet: term, definition
+     * and approximate definition lookups, and passes over the whole deck
+     * (removals, batch compactions, BK-tree, search index and scheduler builds). The counters
+     * start at 0 when the CardSet is created and only grow.
+     *
+     * @return Map Counter name to count, in a fixed order.
+     */
+    public Map<String, Long> getCounters() {
+        Map<String, Long> counters = new LinkedHashMap<>();
+        counters.put("termLookups", termLookups.sum());
+        counters.put("definitionLookups", definitionLookups.sum());
+        counters.put("approximateLookups", approximateLookups.sum());
+        counters.put("scans", scans.sum());
+        return counters;
+    }
+
+    /**
+     * Gets the current statistics epoch.
+     *
+     * @return int The epoch, advanced on every resetMistakes call.
+     */
+    int getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Stores a new mistakes count for a card of this CardSet and moves the
+     * card to its new place in the ranking. Called by Card.setMistakes.
+     *
+     * @param c Card belonging to this CardSet.
+     * @param mistakes New number of mistakes.
+     */
+    void updateMistakes(Card c, int mistakes) {
+        beforeChange(c);
+        if (c.getMistakes() > 0) ranking.remove(c);
+        c.storeMistakes(mistakes, epoch);
+        if (mistakes > 0) ranking.add(c);
+        if (sampler != null) sampler.update(indexOf(c), mistakes);
+        markChanged(c);
+        if (listener != null) listener.mistakesChanged(c);
+    }
+
+    /**
+     * Records a schedule change of one of this CardSet's cards, moves it
+     * in the review heap and passes it on to the listener. Called by
+     * Card.setSchedule.
+     *
+     * @param c Card belonging to this CardSet.
+     */
+    void scheduleChanged(Card c) {
+        if (scheduler != null) scheduler.reschedule(c);
+        markChanged(c);
+        if (listener != null) listener.scheduleChanged(c);
+    }
+
+    /**
+     * Records a change to the answer time statistics of one of this
+     * CardSet's cards and passes it on to the listener. Called by
+     * Card.recordAnswerTime and Card.setAnswerStats.
+     *
+     * @param c Card belonging to this CardSet.
+     */
+    void answerStatsChanged(Card c) {
+        markChanged(c);
+        if (listener != null) listener.answerStatsChanged(c);
+    }
+
+    /**
+     * Initial HashMap capacity that holds the given number of keys without
+     * a rehash at the default load factor.
+     */
+    private static int indexCapacity(int keys) {
+        return (int) Math.min(Integer.MAX_VALUE, keys * 4L / 3 + 1);
+    }
+
+    /**
+     * Orders cards by mistakes, most first, then by the order they were
+     * added so ties come out in deck order.
+     */
+    private static int compareByMistakes(Card a, Card b) {
+        int byMistakes = Integer.compare(b.getMistakes(), a.getMistakes());
+        return byMistakes != 0 ? byMistakes : Long.compare(a.sequence, b.sequence);
+    }
+
+    /**
+     * Returns an endless iterator over the indexes of this CardSet in
+     * shuffled order. Each card comes up once per cycle through the deck.
+     * The CardSet must not be resized while the iterator is in use.
+     *
+     * @return CardShuffler Iterator over shuffled card indexes.
+     */
+    @Override
+    public CardShuffler shuffledIndexes() {
+        return new CardShuffler(size(), rand);
     }
 
     /**
      * Returns the number of cards in this CardSet.
      *
-     * @return int The size of the cards ArrayList.
+     * @return int The number of cards in the cards array.
      */
+    @Override
     public int size() {
-        return cards.size();
+        return size;
+    }
+
+    /**
+     * Takes an immutable snapshot of the deck in O(1). Nothing is copied
+     * up front: the snapshot shares the cards array, and this CardSet
+     * copies the array before its first removal while a snapshot is open
+     * (appends go past the end of the snapshot and need no copy). A card
+     * is copied into the snapshot just before it first changes, so the
+     * snapshot keeps reading the mistakes and schedule it had when it was
+     * taken.
+     *
+     * The snapshot may be read from another thread while this CardSet
+     * keeps changing, as long as taking it is ordered after earlier
+     * changes (e.g. under the same lock). Close it when done, or every
+     * later change keeps copying cards into it.
+     *
+     * @return CardSetSnapshot The deck as it is now.
+     */
+    public CardSetSnapshot snapshot() {
+        cardsShared = true;
+        CardSetSnapshot snapshot = new CardSetSnapshot(this, cards, size, epoch, nextSequence);
+        snapshots.add(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Stops telling a closed snapshot about changes. Called by
+     * CardSetSnapshot.close, possibly from another thread.
+     *
+     * @param snapshot Snapshot that was closed.
+     */
+    void release(CardSetSnapshot snapshot) {
+        snapshots.remove(snapshot);
+    }
+
+    /**
+     * Lets every open snapshot copy a card before its mistakes, schedule or
+     * owner change. Called before each change to a card of this CardSet.
+     *
+     * @param c Card that is about to change.
+     */
+    void beforeChange(Card c) {
+        if (snapshots.isEmpty()) return;
+
+        for (CardSetSnapshot snapshot : snapshots) {
+            snapshot.preserve(c);
+        }
+        // The copies must be visible before the change is.
+        VarHandle.releaseFence();
+    }
+
+    /**
+     * Returns the cards array for a removal, copying it first if an open
+     * snapshot still reads it.
+     *
+     * @return Card[] The cards array, now owned by this CardSet alone.
+     */
+    private Card[] writableCards() {
+        if (cardsShared && !snapshots.isEmpty()) cards = cards.clone();
+        cardsShared = false;
+        return cards;
+    }
+
+    /**
+     * Folds a term or definition into the key used by the lookup indexes.
+     * Two strings that are equal ignoring case produce the same key.
+     *
+     * @param s String to fold.
+     * @return String The case-folded key.
+     */
+    static String foldCase(String s) {
+        // Fold char by char the same way String.equalsIgnoreCase compares them.
+        char[] folded = null;
+
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            char f = Character.toLowerCase(Character.toUpperCase(c));
+            if (f != c && folded == null) folded = s.toCharArray();
+            if (folded != null) folded[i] = f;
+        }
+
+        return folded == null ? s : new String(folded);
+    }
+
+    /**
+     * Case-insensitive hash of a term or definition for the hash tables of
+     * CompactCardSet and the binary deck format. The bits are spread so the
+     * low bits used to pick a slot depend on every bit of the hash. The
+     * value is stored in binary decks, so it must never change.
+     *
+     * @param s String to hash.
+     * @return int The hash of the case-folded string.
+     */
+    static int foldHash(String s) {
+        int h = foldCase(s).hashCode();
+        return h ^ (h >>> 16);
     }
 }
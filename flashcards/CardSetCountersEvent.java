@@ -0,0 +1,36 @@
+package flashcards;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+
+/**
+ * Periodic JFR event with the lookup and scan counters of a CardSet.
+ * The counters only grow, so rates come from the difference between
+ * two events.
+ */
+@Name("flashcards.CardSetCounters")
+@Label("Flashcards CardSet Counters")
+@Category("Flashcards")
+@Description("Lookup and scan counts of the deck since it was created")
+@Period("1 s")
+@StackTrace(false)
+final class CardSetCountersEvent extends jdk.jfr.Event {
+    @Label("Cards")
+    long cards;
+
+    @Label("Term Lookups")
+    long termLookups;
+
+    @Label("Definition Lookups")
+    long definitionLookups;
+
+    @Label("Approximate Lookups")
+    long approximateLookups;
+
+    @Label("Scans")
+    long scans;
+}
@@ -0,0 +1,49 @@
+package flashcards;
+
+/**
+ * Receives every change made to a CardSet, in the order it happens.
+ * Used to record deck mutations as they happen instead of waiting for
+ * an export.
+ */
+public interface CardSetListener {
+
+    /**
+     * A card was added to the deck.
+     *
+     * @param c The new card.
+     */
+    void cardAdded(Card c);
+
+    /**
+     * A card was removed from the deck.
+     *
+     * @param c The removed card.
+     */
+    void cardRemoved(Card c);
+
+    /**
+     * A card's mistakes count changed.
+     *
+     * @param c The card, already holding its new count.
+     */
+    void mistakesChanged(Card c);
+
+    /**
+     * A card's review schedule changed.
+     *
+     * @param c The card, already holding its new schedule.
+     */
+    void scheduleChanged(Card c);
+
+    /**
+     * A card's answer time statistics changed.
+     *
+     * @param c The card, already holding its new statistics.
+     */
+    void answerStatsChanged(Card c);
+
+    /**
+     * Every card's mistakes count was reset to 0.
+     */
+    void mistakesReset();
+}
@@ -0,0 +1,164 @@
+package flashcards;
+
+import java.lang.invoke.VarHandle;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable view of a CardSet as it was when CardSet.snapshot was called.
+ * Taking one is O(1): it shares the CardSet's cards array, and a card is
+ * only copied into the snapshot right before the CardSet changes it. So
+ * an export or a report can read a consistent deck from another thread
+ * without copying the deck first or holding a lock while it reads.
+ *
+ * getCard returns a detached copy on every call, so changing it changes
+ * neither the snapshot nor the CardSet. The CardSet's indexes and ranking
+ * have moved on, so the first lookup builds term and definition indexes
+ * of the snapshot's own, and the hardest cards are found by a scan. A
+ * snapshot is a read-only CardStore.
+ */
+public final class CardSetSnapshot implements CardStore, AutoCloseable {
+    private final CardSet owner;
+    private final Card[] cards;    // Shared with the owner; slots below size never change.
+    private final int size;
+    private final int epoch;       // Owner's statistics epoch when the snapshot was taken.
+    private final long sequenceLimit; // Cards added from here on are not in the snapshot.
+    private final ConcurrentHashMap<Card, Card> preserved; // Live card to its copy from before it changed.
+    private Map<String, Integer> termIndex;       // Case-folded term to index, built by the first lookup.
+    private Map<String, Integer> definitionIndex; // Same for definitions.
+
+    /**
+     * CardSetSnapshot constructor. Only CardSet.snapshot creates snapshots.
+     *
+     * @param owner CardSet the snapshot was taken of.
+     * @param cards The owner's cards array.
+     * @param size Number of cards in the snapshot.
+     * @param epoch The owner's statistics epoch.
+     * @param sequenceLimit Sequence number the owner gives its next card.
+     */
+    CardSetSnapshot(CardSet owner, Card[] cards, int size, int epoch, long sequenceLimit) {
+        this.owner = owner;
+        this.cards = cards;
+        this.size = size;
+        this.epoch = epoch;
+        this.sequenceLimit = sequenceLimit;
+        this.preserved = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Copies a card of the owner before it changes, unless it is not part
+     * of the snapshot or was copied already. Called by the owner.
+     *
+     * @param c Card that is about to change.
+     */
+    void preserve(Card c) {
+        if (c.sequence < sequenceLimit && !preserved.containsKey(c)) preserved.put(c, freeze(c));
+    }
+
+    /**
+     * Copies a card with the mistakes it has under the snapshot's epoch.
+     *
+     * @param c Card of the owner.
+     * @return Card A detached copy.
+     */
+    private Card freeze(Card c) {
+        Card copy = new Card(c.getTerm(), c.getDefinition(), mistakes(c), c.getRepetitions(), c.getInterval(), c.getEase(),
+                c.getDue());
+        copy.setAnswerStats(c.getAnswers(), c.getMeanAnswerMillis(), c.getAnswerM2Millis());
+        return copy;
+    }
+
+    /**
+     * Reads a card's mistakes as the snapshot sees them: counts stored
+     * before a reset that came before the snapshot read as 0.
+     */
+    private int mistakes(Card c) {
+        return c.epoch == epoch ? c.storedMistakes() : 0;
+    }
+
+    /**
+     * Returns a card by index. The card is a copy: changing it changes
+     * neither the snapshot nor the CardSet.
+     *
+     * @param index Index of a card within the snapshot.
+     * @return Card A new card as it was when the snapshot was taken.
+     */
+    @Override
+    public Card getCard(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        Card c = cards[index];
+
+        Card frozen = preserved.get(c);
+        if (frozen != null) return new Card(frozen);
+
+        // Read the live card, then check it did not start changing meanwhile.
+        Card copy = freeze(c);
+        VarHandle.acquireFence();
+        frozen = preserved.get(c);
+        return frozen != null ? new Card(frozen) : copy;
+    }
+
+    /**
+     * Returns a card by term (IGNORES CASE).
+     *
+     * @param term Term of a card within the snapshot.
+     * @return Card A copy of the card with the term <b>or</b> null if no card was found.
+     */
+    @Override
+    public Card getCardByTerm(String term) {
+        buildIndexes();
+        Integer index = termIndex.get(CardSet.foldCase(term));
+        return index == null ? null : getCard(index);
+    }
+
+    /**
+     * Returns a card by definition (IGNORES CASE).
+     *
+     * @param definition Definition of a card within the snapshot.
+     * @return Card A copy of the card with the definition <b>or</b> null if no card was found.
+     */
+    @Override
+    public Card getCardByDefinition(String definition) {
+        buildIndexes();
+        Integer index = definitionIndex.get(CardSet.foldCase(definition));
+        return index == null ? null : getCard(index);
+    }
+
+    /**
+     * Indexes the snapshot's cards by term and definition, once. Like the
+     * CardSet, a key shared by several cards finds the first of them.
+     * Terms and definitions never change, so the live cards can be read.
+     */
+    private synchronized void buildIndexes() {
+        if (termIndex != null) return;
+
+        Map<String, Integer> terms = new HashMap<>(size * 2);
+        Map<String, Integer> definitions = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            terms.putIfAbsent(CardSet.foldCase(cards[i].getTerm()), i);
+            definitions.putIfAbsent(CardSet.foldCase(cards[i].getDefinition()), i);
+        }
+        definitionIndex = definitions;
+        termIndex = terms;
+    }
+
+    /**
+     * Returns the number of cards in this snapshot.
+     *
+     * @return int The number of cards when the snapshot was taken.
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Releases the snapshot so the CardSet stops copying cards into it.
+     * The snapshot must not be read afterwards.
+     */
+    @Override
+    public void close() {
+        owner.release(this);
+    }
+}
@@ -0,0 +1,63 @@
+package flashcards;
+
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+
+/**
+ * Endless iterator over the card indexes of a deck in shuffled order.
+ * Every index is returned exactly once per cycle, like dealing a real
+ * deck of flashcards. The permutation is built one step of a Fisher-Yates
+ * shuffle at a time, and when a cycle ends the same array is shuffled
+ * again in place, so iterating allocates nothing after construction.
+ */
+public final class CardShuffler implements PrimitiveIterator.OfInt {
+    private final int[] order;
+    private final Random rand;
+    private int position;
+
+    /**
+     * CardShuffler constructor.
+     *
+     * @param size Number of cards in the deck. The deck must not change size while iterating.
+     * @param rand Random number generator used for shuffling.
+     */
+    CardShuffler(int size, Random rand) {
+        this.order = new int[size];
+        this.rand = rand;
+
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+    }
+
+    /**
+     * There is always a next index unless the deck is empty.
+     *
+     * @return boolean True if the deck has at least one card.
+     */
+    @Override
+    public boolean hasNext() {
+        return order.length > 0;
+    }
+
+    /**
+     * Returns the index of the next card of the current cycle. Swaps a
+     * random not-yet-dealt index into the current position, which is one
+     * step of the Fisher-Yates shuffle.
+     *
+     * @return int Index of the next card to ask.
+     */
+    @Override
+    public int nextInt() {
+        if (order.length == 0) throw new NoSuchElementException("The deck is empty.");
+        if (position == order.length) position = 0;
+
+        int swap = position + rand.nextInt(order.length - position);
+        int index = order[swap];
+        order[swap] = order[position];
+        order[position++] = index;
+
+        return index;
+    }
+}
@@ -0,0 +1,113 @@
+package flashcards;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Read access to a deck of cards shared by every deck storage backend.
+ * CardSet keeps a Card object per card, CompactCardSet packs the cards
+ * into primitive arrays for very large decks, MappedCardSet reads them
+ * from a memory-mapped file and CardSetSnapshot is a frozen CardSet.
+ * Backends that can grow also implement MutableCardStore.
+ */
+public interface CardStore {
+
+    /**
+     * Returns a card by index.
+     *
+     * @param index Index of a card within the deck.
+     * @return Card The card at the index.
+     */
+    Card getCard(int index);
+
+    /**
+     * Returns a card by term (IGNORES CASE).
+     *
+     * @param term Term of a card within the deck.
+     * @return Card The card with the term <b>or</b> null if no card was found.
+     */
+    Card getCardByTerm(String term);
+
+    /**
+     * Returns a card by definition (IGNORES CASE).
+     *
+     * @param definition Definition of a card within the deck.
+     * @return Card The card with the definition <b>or</b> null if no card was found.
+     */
+    Card getCardByDefinition(String definition);
+
+    /**
+     * Returns the number of cards in the deck.
+     *
+     * @return int The number of cards.
+     */
+    int size();
+
+    /**
+     * Returns the cards tied for the most mistakes, in deck order. Backends
+     * without a ranking scan the deck once.
+     *
+     * @return List The hardest cards, empty if no card has mistakes.
+     */
+    default List<Card> getHardestCards() {
+        List<Card> hardest = new ArrayList<>();
+
+        for (int i = 0; i < size(); i++) {
+            Card c = getCard(i);
+            if (c.getMistakes() == 0) continue;
+            if (!hardest.isEmpty() && c.getMistakes() < hardest.get(0).getMistakes()) continue;
+            if (!hardest.isEmpty() && c.getMistakes() > hardest.get(0).getMistakes()) hardest.clear();
+            hardest.add(c);
+        }
+        return hardest;
+    }
+
+    /**
+     * Returns up to k cards with the most mistakes, most mistakes first and
+     * ties in deck order. Backends without a ranking make one pass over the
+     * deck with a heap of k cards.
+     *
+     * @param k Maximum number of cards to return.
+     * @return List The hardest cards, leaving out cards without mistakes.
+     */
+    default List<Card> getHardestCards(int k) {
+        Map<Card, Integer> indexes = new IdentityHashMap<>();
+        // Weakest of the k kept so far on top: fewest mistakes, then latest in the deck.
+        Comparator<Card> weakestFirst = (a, b) -> {
+            int byMistakes = Integer.compare(a.getMistakes(), b.getMistakes());
+            return byMistakes != 0 ? byMistakes : Integer.compare(indexes.get(b), indexes.get(a));
+        };
+        PriorityQueue<Card> heap = new PriorityQueue<>(weakestFirst);
+
+        for (int i = 0; i < size() && k > 0; i++) {
+            Card c = getCard(i);
+            if (c.getMistakes() == 0) continue;
+            if (heap.size() == k) {
+                if (c.getMistakes() <= heap.peek().getMistakes()) continue;
+                indexes.remove(heap.poll());
+            }
+            indexes.put(c, i);
+            heap.add(c);
+        }
+
+        List<Card> hardest = new ArrayList<>(heap);
+        hardest.sort(weakestFirst.reversed());
+        return hardest;
+    }
+
+    /**
+     * Returns an endless iterator over the indexes of this deck in
+     * shuffled order. Each card comes up once per cycle through the deck.
+     * The deck must not be resized while the iterator is in use.
+     *
+     * @return CardShuffler Iterator over shuffled card indexes.
+     */
+    default CardShuffler shuffledIndexes() {
+        return new CardShuffler(size(), new Random());
+    }
+}
@@ -0,0 +1,31 @@
+package flashcards;
+
+/**
+ * Receives the changes made to a view: a Card that a packed CardStore
+ * built from its own storage. The store writes each change back, so the
+ * view can be changed like any other card. The view's sequence field
+ * holds its index within the store.
+ */
+interface CardWriteBack {
+
+    /**
+     * A view's mistakes count changed.
+     *
+     * @param c The view, already holding its new count.
+     */
+    void mistakesChanged(Card c);
+
+    /**
+     * A view's review schedule changed.
+     *
+     * @param c The view, already holding its new schedule.
+     */
+    void scheduleChanged(Card c);
+
+    /**
+     * A view's answer time statistics changed.
+     *
+     * @param c The view, already holding its new statistics.
+     */
+    void answerStatsChanged(Card c);
+}
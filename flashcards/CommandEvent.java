@@ -0,0 +1,19 @@
+package flashcards;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for one menu command. The event duration is the time
+ * processInput spent on the command, including waiting for input.
+ */
+@Name("flashcards.Command")
+@Label("Flashcards Command")
+@Category("Flashcards")
+@Description("A menu command handled by FlashcardIOHandler.processInput")
+final class CommandEvent extends jdk.jfr.Event {
+    @Label("Command")
+    String command;
+}
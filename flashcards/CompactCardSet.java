@@ -0,0 +1,387 @@
+package flashcards;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Deck storage for very large decks. Instead of a Card object with two
+ * Strings per card, terms and definitions are packed back to back into
+ * two UTF-8 byte arenas with an offset array each, and the mistakes,
+ * review schedule and answer time statistics are kept in one primitive
+ * array per field. The term and definition indexes are open addressing
+ * hash tables of card numbers, so a card costs under a hundred bytes plus
+ * its text instead of several hundred, and the garbage collector only
+ * sees a handful of large arrays.
+ *
+ * Cards are only appended. getCard builds a new Card on every call, but
+ * the Card is a view: setMistakes, setSchedule and recordAnswerTime on it
+ * are written back to the arrays. A view does not see changes made
+ * through another view of the same card. Each arena holds at most 2 GB
+ * of text.
+ */
+public final class CompactCardSet implements MutableCardStore {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    private byte[] terms;
+    private byte[] definitions;
+    private int[] termOffsets;       // Card i's term is terms[termOffsets[i], termOffsets[i + 1]).
+    private int[] definitionOffsets; // Same for definitions.
+    private int[] mistakes;
+    private int[] repetitions;
+    private int[] intervals;
+    private double[] eases;
+    private long[] dues;
+    private int[] answers;
+    private double[] meanMillis;
+    private double[] m2Millis;
+    private int[] termTable;         // Card number + 1 per slot, 0 for an empty slot.
+    private int[] definitionTable;
+    private int size;
+    private final CardWriteBack writeBack;
+
+    /**
+     * Blank CompactCardSet constructor.
+     */
+    public CompactCardSet() {
+        this.terms = new byte[INITIAL_CAPACITY * 8];
+        this.definitions = new byte[INITIAL_CAPACITY * 8];
+        this.termOffsets = new int[INITIAL_CAPACITY + 1];
+        this.definitionOffsets = new int[INITIAL_CAPACITY + 1];
+        this.mistakes = new int[INITIAL_CAPACITY];
+        this.repetitions = new int[INITIAL_CAPACITY];
+        this.intervals = new int[INITIAL_CAPACITY];
+        this.eases = new double[INITIAL_CAPACITY];
+        this.dues = new long[INITIAL_CAPACITY];
+        this.answers = new int[INITIAL_CAPACITY];
+        this.meanMillis = new double[INITIAL_CAPACITY];
+        this.m2Millis = new double[INITIAL_CAPACITY];
+        this.termTable = new int[INITIAL_CAPACITY * 2];
+        this.definitionTable = new int[INITIAL_CAPACITY * 2];
+        this.writeBack = new ViewWriter();
+    }
+
+    /**
+     * CompactCardSet constructor. Packs every card of the given deck with
+     * its mistakes, review schedule and answer time statistics.
+     *
+     * @param cs All cards in this deck will be added to the new CompactCardSet.
+     */
+    public CompactCardSet(CardStore cs) {
+        this();
+        for (int i = 0; i < cs.size(); i++) {
+            Card c = cs.getCard(i);
+            addCard(c.getTerm(), c.getDefinition(), c.getMistakes());
+            store(size - 1, c);
+        }
+        trimToSize();
+    }
+
+    /**
+     * Appends a card to the arenas and indexes it by term and definition.
+     * Like CardSet, a term or definition that is already indexed keeps
+     * pointing at the first card that had it.
+     *
+     * @param term String input representing the term of the card to be added.
+     * @param definition String input representing the definition of the card to be added.
+     * @param mistakes An integer count of the number of mistakes for this card.
+     */
+    @Override
+    public void addCard(String term, String definition, int mistakes) {
+        if (size == this.mistakes.length) resize(grow(size, MAX_ARRAY_SIZE - 1));
+
+        byte[] termBytes = term.getBytes(StandardCharsets.UTF_8);
+        byte[] definitionBytes = definition.getBytes(StandardCharsets.UTF_8);
+        terms = append(terms, termOffsets, termBytes);
+        definitions = append(definitions, definitionOffsets, definitionBytes);
+        this.mistakes[size] = mistakes;
+        eases[size] = Card.DEFAULT_EASE;
+        size++;
+
+        // Keep both tables at most half full so probe sequences stay short.
+        if (2 * size > termTable.length) {
+            termTable = rehash(termTable.length * 2, true);
+            definitionTable = rehash(definitionTable.length * 2, false);
+        } else {
+            insert(termTable, size - 1, term, true);
+            insert(definitionTable, size - 1, definition, false);
+        }
+    }
+
+    /**
+     * Copies a card's text to the end of an arena and records where it ends.
+     *
+     * @param arena Arena to append to.
+     * @param offsets Offset array of the arena.
+     * @param bytes UTF-8 text of the card.
+     * @return byte[] The arena, replaced by a larger copy if it was full.
+     */
+    private byte[] append(byte[] arena, int[] offsets, byte[] bytes) {
+        int start = offsets[size];
+        if (bytes.length > MAX_ARRAY_SIZE - start) {
+            throw new IllegalStateException("CompactCardSet cannot hold more than 2 GB of terms or definitions.");
+        }
+        if (start + bytes.length > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(start + bytes.length, grow(arena.length, MAX_ARRAY_SIZE)));
+        }
+
+        System.arraycopy(bytes, 0, arena, start, bytes.length);
+        offsets[size + 1] = start + bytes.length;
+        return arena;
+    }
+
+    /**
+     * Resizes the per-card arrays, but not the arenas or hash tables.
+     *
+     * @param capacity New number of cards the arrays can hold.
+     */
+    private void resize(int capacity) {
+        termOffsets = Arrays.copyOf(termOffsets, capacity + 1);
+        definitionOffsets = Arrays.copyOf(definitionOffsets, capacity + 1);
+        mistakes = Arrays.copyOf(mistakes, capacity);
+        repetitions = Arrays.copyOf(repetitions, capacity);
+        intervals = Arrays.copyOf(intervals, capacity);
+        eases = Arrays.copyOf(eases, capacity);
+        dues = Arrays.copyOf(dues, capacity);
+        answers = Arrays.copyOf(answers, capacity);
+        meanMillis = Arrays.copyOf(meanMillis, capacity);
+        m2Millis = Arrays.copyOf(m2Millis, capacity);
+    }
+
+    /**
+     * Returns a new capacity about 1.5 times the old one.
+     */
+    private static int grow(int capacity, int max) {
+        return (int) Math.min(max, capacity + (capacity >> 1) + 1L);
+    }
+
+    /**
+     * Shrinks the arrays to the cards they hold. Useful after loading a
+     * large deck, since the arrays grow in steps of 50%.
+     */
+    public void trimToSize() {
+        terms = Arrays.copyOf(terms, termOffsets[size]);
+        definitions = Arrays.copyOf(definitions, definitionOffsets[size]);
+        resize(size);
+    }
+
+    /**
+     * Returns a card by index. The card is a view: changes to its
+     * mistakes, schedule and answer times are written back to the deck.
+     *
+     * @param index Index of a card within the deck.
+     * @return Card A new view of the card at the index.
+     */
+    @Override
+    public Card getCard(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        Card c = new Card(getTerm(index), getDefinition(index), mistakes[index],
+                repetitions[index], intervals[index], eases[index], dues[index]);
+        c.setAnswerStats(answers[index], meanMillis[index], m2Millis[index]);
+
+        // Set last, so building the view does not write it back.
+        c.sequence = index;
+        c.writeBack = writeBack;
+        return c;
+    }
+
+    /**
+     * Copies the mistakes, schedule and answer time statistics of a card
+     * into the arrays.
+     *
+     * @param index Index of a card within the deck.
+     * @param c Card holding the fields to store.
+     */
+    private void store(int index, Card c) {
+        mistakes[index] = c.getMistakes();
+        storeSchedule(index, c);
+        storeAnswerStats(index, c);
+    }
+
+    /**
+     * Copies the review schedule of a card into the arrays.
+     */
+    private void storeSchedule(int index, Card c) {
+        repetitions[index] = c.getRepetitions();
+        intervals[index] = c.getInterval();
+        eases[index] = c.getEase();
+        dues[index] = c.getDue();
+    }
+
+    /**
+     * Copies the answer time statistics of a card into the arrays.
+     */
+    private void storeAnswerStats(int index, Card c) {
+        answers[index] = c.getAnswers();
+        meanMillis[index] = c.getMeanAnswerMillis();
+        m2Millis[index] = c.getAnswerM2Millis();
+    }
+
+    /**
+     * Writes the changes made to a view back to the field group that
+     * changed, so views of the same card changing other fields do not
+     * overwrite each other.
+     */
+    private final class ViewWriter implements CardWriteBack {
+        @Override
+        public void mistakesChanged(Card c) {
+            mistakes[(int) c.sequence] = c.getMistakes();
+        }
+
+        @Override
+        public void scheduleChanged(Card c) {
+            storeSchedule((int) c.sequence, c);
+        }
+
+        @Override
+        public void answerStatsChanged(Card c) {
+            storeAnswerStats((int) c.sequence, c);
+        }
+    }
+
+    /**
+     * Returns a card by term (IGNORES CASE).
+     *
+     * @param term Term of a card within the deck.
+     * @return Card A view of the card with the term <b>or</b> null if no card was found.
+     */
+    @Override
+    public Card getCardByTerm(String term) {
+        int index = indexOfTerm(term);
+        return index < 0 ? null : getCard(index);
+    }
+
+    /**
+     * Returns a card by definition (IGNORES CASE).
+     *
+     * @param definition Definition of a card within the deck.
+     * @return Card A view of the card with the definition <b>or</b> null if no card was found.
+     */
+    @Override
+    public Card getCardByDefinition(String definition) {
+        int index = indexOfDefinition(definition);
+        return index < 0 ? null : getCard(index);
+    }
+
+    /**
+     * Finds a card by term without building a Card.
+     *
+     * @param term Term of a card within the deck (IGNORES CASE).
+     * @return int Index of the card <b>or</b> -1 if no card was found.
+     */
+    public int indexOfTerm(String term) {
+        return find(termTable, term, true);
+    }
+
+    /**
+     * Finds a card by definition without building a Card.
+     *
+     * @param definition Definition of a card within the deck (IGNORES CASE).
+     * @return int Index of the card <b>or</b> -1 if no card was found.
+     */
+    public int indexOfDefinition(String definition) {
+        return find(definitionTable, definition, false);
+    }
+
+    /**
+     * Decodes the term of a card.
+     *
+     * @param index Index of a card within the deck.
+     * @return String The card's term.
+     */
+    public String getTerm(int index) {
+        return new String(terms, termOffsets[index], termOffsets[index + 1] - termOffsets[index], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decodes the definition of a card.
+     *
+     * @param index Index of a card within the deck.
+     * @return String The card's definition.
+     */
+    public String getDefinition(int index) {
+        return new String(definitions, definitionOffsets[index],
+                definitionOffsets[index + 1] - definitionOffsets[index], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gets the mistakes of a card.
+     *
+     * @param index Index of a card within the deck.
+     * @return int The card's number of mistakes.
+     */
+    public int getMistakes(int index) {
+        return mistakes[index];
+    }
+
+    /**
+     * Sets the mistakes of a card.
+     *
+     * @param index Index of a card within the deck.
+     * @param mistakes New number of mistakes.
+     */
+    public void setMistakes(int index, int mistakes) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        this.mistakes[index] = mistakes;
+    }
+
+    /**
+     * Returns the number of cards in this CompactCardSet.
+     *
+     * @return int The number of cards.
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Looks a term or definition up in one of the hash tables.
+     *
+     * @param table termTable or definitionTable.
+     * @param key Term or definition to find.
+     * @param byTerm True to compare against terms, false for definitions.
+     * @return int Index of the first card with the key <b>or</b> -1.
+     */
+    private int find(int[] table, String key, boolean byTerm) {
+        int mask = table.length - 1;
+        for (int slot = CardSet.foldHash(key) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            int index = table[slot] - 1;
+            if ((byTerm ? getTerm(index) : getDefinition(index)).equalsIgnoreCase(key)) return index;
+        }
+        return -1;
+    }
+
+    /**
+     * Adds a card to a hash table unless another card already has its key.
+     *
+     * @param table termTable or definitionTable, with at least one free slot.
+     * @param index Index of the card.
+     * @param key The card's term or definition.
+     * @param byTerm True to compare against terms, false for definitions.
+     */
+    private void insert(int[] table, int index, String key, boolean byTerm) {
+        int mask = table.length - 1;
+        int slot = CardSet.foldHash(key) & mask;
+        for (; table[slot] != 0; slot = (slot + 1) & mask) {
+            int other = table[slot] - 1;
+            if ((byTerm ? getTerm(other) : getDefinition(other)).equalsIgnoreCase(key)) return;
+        }
+        table[slot] = index + 1;
+    }
+
+    /**
+     * Builds a hash table of the given capacity holding every card.
+     *
+     * @param capacity Number of slots, a power of two.
+     * @param byTerm True for the term table, false for the definition table.
+     * @return int[] The new table.
+     */
+    private int[] rehash(int capacity, boolean byTerm) {
+        int[] table = new int[capacity];
+        for (int i = 0; i < size; i++) {
+            insert(table, i, byTerm ? getTerm(i) : getDefinition(i), byTerm);
+        }
+        return table;
+    }
+}
@@ -0,0 +1,77 @@
+package flashcards;
+
+import java.io.File;
+import java.io.IOException;
+
+public final class DeckExporter {
+    public static final String GZIP_EXTENSION = ".gz";
+
+    private final CardStore cs;
+
+    /**
+     * DeckExporter constructor. Cards of the given deck are written
+     * by this exporter.
+     *
+     * @param cs Deck to export, a CardSet or any other CardStore.
+     */
+    public DeckExporter(CardStore cs) {
+        this.cs = cs;
+    }
+
+    /**
+     * Writes every card to a file, replacing the file if it exists.
+     * Paths ending in .deck are written in the binary deck format,
+     * paths ending in .patch get only the changes since the deck was last
+     * saved (see DeckPatch), and anything else is written as a text deck.
+     * A MappedCardSet exported to a .deck file is copied as is. A text
+     * deck or patch whose path also ends in .gz, e.g. spanish.txt.gz, is
+     * gzip compressed; DeckImporter recognizes that by its content. Text
+     * decks look like this:
+     *
+     * TERM:DEFINITION:MISTAKES:REPETITIONS:INTERVAL:EASE:DUE:ANSWERS:ANSWER_MEAN_MS:ANSWER_M2
+     * German:Deutsche:0:2:6:2.5:1591574400000:3:1840.0:96800.0
+     * I am:Ich bin:3:0:0:2.5:0:0:0.0:0.0
+     * ... : ... : ... : ... : ... : ... : ... : ... : ... : ...
+     *
+     * @param file File to write.
+     * @return int Number of cards exported (changed cards for a patch).
+     * @throws IOException If the file cannot be written.
+     */
+    public int exportFile(File file) throws IOException {
+        String path = file.getPath();
+        if (hasGzipExtension(path)) path = path.substring(0, path.length() - GZIP_EXTENSION.length());
+
+        if (DeckPatch.hasPatchExtension(path)) {
+            if (!(cs instanceof CardSet)) throw new IOException("Only a CardSet tracks the changes a patch needs.");
+            return DeckPatch.write((CardSet) cs, file);
+        }
+        if (BinaryDeckFormat.hasBinaryExtension(path)) {
+            if (!path.equals(file.getPath())) {
+                throw new IOException("Binary decks are memory-mapped and cannot be compressed: " + file);
+            }
+            if (cs instanceof MappedCardSet) return ((MappedCardSet) cs).copyTo(file);
+            return BinaryDeckFormat.write(cs, file);
+        }
+
+        // Cards are written as they are read so a mapped deck never has to fit in memory.
+        int numCardsExported = 0;
+        try (DeckTextWriter writer = new DeckTextWriter(file)) {
+            writer.writeLine(DeckImporter.HEADER);
+            for (int i = 0; i < cs.size(); i++) {
+                writer.writeCard("", cs.getCard(i));
+                numCardsExported++;
+            }
+        }
+        return numCardsExported;
+    }
+
+    /**
+     * Checks whether a path should be written gzip compressed.
+     *
+     * @param path Path of the export file.
+     * @return boolean True if the path ends with the gzip extension.
+     */
+    public static boolean hasGzipExtension(String path) {
+        return path.toLowerCase().endsWith(GZIP_EXTENSION);
+    }
+}
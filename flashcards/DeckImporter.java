@@ -0,0 +1,490 @@
+package flashcards;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+public final class DeckImporter {
+    public static final String HEADER = "TERM:DEFINITION:MISTAKES:REPETITIONS:INTERVAL:EASE:DUE:ANSWERS:ANSWER_MEAN_MS:ANSWER_M2";
+
+    private static final int BATCH_SIZE = 4096;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int[] GZIP_MAGIC = {0x1f, 0x8b};
+    private static final int MAX_TRAILING_COLUMNS = 8;
+
+    private static final String GLOB_CHARACTERS = "*?[{";
+
+    private final CardSet cs;
+    private final int parallelism;
+    private boolean patch;
+    private String unit;
+    private long linesRead;
+    private long rejectedLines;
+    private long bytesRead;
+    private long elapsedNanos;
+
+    /**
+     * DeckImporter constructor. Cards read by this importer are merged
+     * into the given CardSet.
+     *
+     * @param cs CardSet that receives the imported cards.
+     */
+    public DeckImporter(CardSet cs) {
+        this(cs, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * DeckImporter constructor with a fixed number of parser threads for
+     * multi-file imports. The imported deck does not depend on it.
+     *
+     * @param cs CardSet that receives the imported cards.
+     * @param parallelism Number of files parsed at once.
+     */
+    public DeckImporter(CardSet cs, int parallelism) {
+        this.cs = cs;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Imports a deck file, every file of a directory, or every file that
+     * matches a glob in its last path component (e.g. decks/*.txt).
+     * Several files are parsed in parallel on a fork-join pool into
+     * partial decks, which are joined in path order and merged with the
+     * usual import rules. The result is the same as importing the files
+     * one by one in path order, whatever the number of threads.
+     *
+     * @param path File, directory or glob to import.
+     * @return int Number of cards imported.
+     * @throws IOException If a file cannot be read or nothing matches the path.
+     */
+    public int importPath(String path) throws IOException {
+        rejectedLines = 0;
+        File file = new File(path);
+        if (file.isFile()) return importFile(file);
+
+        File[] files = listFiles(path);
+        if (files.length == 0) throw new FileNotFoundException("No deck files found for " + path);
+
+        long start = System.nanoTime();
+        patch = false;
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            PartialDeck deck = pool.invoke(new ParseTask(files, 0, files.length));
+            unit = deck.textFiles == files.length ? "lines" : deck.textFiles == 0 ? "cards" : "records";
+            linesRead = deck.records;
+            rejectedLines = deck.rejected;
+            bytesRead = deck.bytes;
+            return cs.addAll(deck.cards);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            // The pool is only used for this import; its workers would otherwise idle until they time out.
+            pool.shutdown();
+            elapsedNanos = System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Checks whether importPath would find anything to import.
+     *
+     * @param path File, directory or glob.
+     * @return boolean True if the path is a file or a directory or glob with at least one file.
+     */
+    public static boolean hasDeckFiles(String path) {
+        return new File(path).isFile() || listFiles(path).length > 0;
+    }
+
+    /**
+     * Lists the regular files of a directory, or of the parent directory
+     * matching a glob, sorted by path so the merge order is fixed.
+     *
+     * @param path Directory or glob.
+     * @return File[] The matching files <b>or</b> an empty array.
+     */
+    private static File[] listFiles(String path) {
+        File directory = new File(path);
+        PathMatcher matcher = null;
+
+        String name = directory.getName();
+        if (name.chars().anyMatch(c -> GLOB_CHARACTERS.indexOf(c) >= 0)) {
+            matcher = FileSystems.getDefault().getPathMatcher("glob:" + name);
+            directory = directory.getParentFile() == null ? new File(".") : directory.getParentFile();
+        }
+
+        PathMatcher glob = matcher;
+        File[] files = directory.listFiles(f -> f.isFile() && !f.isHidden()
+                && (glob == null || glob.matches(Paths.get(f.getName()))));
+        if (files == null) return new File[0];
+
+        Arrays.sort(files);
+        return files;
+    }
+
+    /**
+     * Cards parsed from one or more files, in path order and file order,
+     * not yet merged into a deck.
+     */
+    private static final class PartialDeck {
+        private final List<Card> cards = new ArrayList<>();
+        private long records;
+        private long rejected;
+        private long bytes;
+        private int textFiles;
+
+        /**
+         * Appends the cards of the files that come after this partial deck.
+         *
+         * @param next Partial deck of the following files.
+         * @return PartialDeck This partial deck.
+         */
+        private PartialDeck append(PartialDeck next) {
+            cards.addAll(next.cards);
+            records += next.records;
+            rejected += next.rejected;
+            bytes += next.bytes;
+            textFiles += next.textFiles;
+            return this;
+        }
+    }
+
+    /**
+     * Parses a range of files by splitting it in half until one file is
+     * left, then joins the partial decks back together in order.
+     */
+    private static final class ParseTask extends RecursiveTask<PartialDeck> {
+        private static final long serialVersionUID = 1L;
+
+        private final File[] files;
+        private final int from;
+        private final int to;
+
+        private ParseTask(File[] files, int from, int to) {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected PartialDeck compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                ParseTask left = new ParseTask(files, from, middle);
+                left.fork();
+                PartialDeck right = new ParseTask(files, middle, to).compute();
+                return left.join().append(right);
+            }
+
+            PartialDeck deck = new PartialDeck();
+            File file = files[from];
+            try {
+                deck.bytes = file.length();
+                if (DeckPatch.isPatch(file)) {
+                    throw new IOException("Patches must be imported one at a time, on top of their deck: " + file);
+                } else if (BinaryDeckFormat.isBinaryDeck(file)) {
+                    deck.cards.addAll(BinaryDeckFormat.readCards(file));
+                    deck.records = deck.cards.size();
+                } else {
+                    long[] rejected = {0};
+                    deck.records = readTextFile(file, deck.cards::addAll, rejected);
+                    deck.rejected = rejected[0];
+                    deck.textFiles = 1;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return deck;
+        }
+    }
+
+    /**
+     * Imports a deck file into the CardSet. Binary decks and patches are
+     * recognized by their header and loaded through BinaryDeckFormat and
+     * DeckPatch, anything else is read as a text deck.
+     *
+     * @param file File to read.
+     * @return int Number of cards imported.
+     * @throws IOException If the file cannot be read.
+     */
+    public int importFile(File file) throws IOException {
+        rejectedLines = 0;
+        patch = DeckPatch.isPatch(file);
+        if (patch) return applyPatch(file);
+        if (!BinaryDeckFormat.isBinaryDeck(file)) return importTextFile(file);
+
+        long start = System.nanoTime();
+        unit = "cards";
+        bytesRead = file.length();
+
+        try {
+            int numCardsImported = BinaryDeckFormat.read(file, cs);
+            linesRead = numCardsImported;
+            return numCardsImported;
+        } finally {
+            elapsedNanos = System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Applies a deck patch to the CardSet.
+     *
+     * @param file Patch file.
+     * @return int Number of changes applied.
+     * @throws IOException If the file cannot be read.
+     */
+    private int applyPatch(File file) throws IOException {
+        long start = System.nanoTime();
+        unit = "changes";
+        bytesRead = file.length();
+
+        try {
+            int numChanges = DeckPatch.apply(file, cs);
+            linesRead = numChanges;
+            return numChanges;
+        } finally {
+            elapsedNanos = System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Streams a text deck into the CardSet. The header line tells how many
+     * columns each line has and is otherwise skipped. Lines are parsed in a single pass without regular
+     * expressions and handed to CardSet.addAll in batches, so the
+     * import rules are applied once per batch instead of once per line.
+     *
+     * @param file File to read.
+     * @return int Number of cards imported.
+     * @throws IOException If the file cannot be read.
+     */
+    private int importTextFile(File file) throws IOException {
+        long start = System.nanoTime();
+        int[] numCardsImported = {0};
+        long[] rejected = {0};
+
+        unit = "lines";
+        linesRead = 0;
+        bytesRead = file.length();
+
+        try {
+            linesRead = readTextFile(file, batch -> numCardsImported[0] += cs.addAll(batch), rejected);
+        } finally {
+            rejectedLines = rejected[0];
+            elapsedNanos = System.nanoTime() - start;
+        }
+
+        return numCardsImported[0];
+    }
+
+    /**
+     * Parses a text deck and hands its cards to a consumer in batches of
+     * BATCH_SIZE. The batch list is reused once the consumer returns.
+     * Malformed lines are counted and skipped; blank lines are ignored.
+     *
+     * @param file File to read.
+     * @param sink Receives each batch of parsed cards, in file order.
+     * @param rejected One element array the number of malformed lines is added to.
+     * @return long Number of lines read after the header.
+     * @throws IOException If the file cannot be read.
+     */
+    private static long readTextFile(File file, Consumer<List<Card>> sink, long[] rejected) throws IOException {
+        List<Card> batch = new ArrayList<>(BATCH_SIZE);
+        long lines = 0;
+
+        try (BufferedReader br = openTextFile(file)) {
+            int columns = countTrailingColumns(br.readLine());
+
+            String line;
+            while ((line = br.readLine()) != null) {
+                lines++;
+
+                Card c = parseLine(line, columns);
+                if (c == null) {
+                    if (!line.isBlank()) rejected[0]++;
+                    continue;
+                }
+
+                batch.add(c);
+                if (batch.size() == BATCH_SIZE) {
+                    sink.accept(batch);
+                    batch.clear();
+                }
+            }
+
+            sink.accept(batch);
+        }
+
+        return lines;
+    }
+
+    /**
+     * Opens a text deck or patch for reading. A gzip compressed file is
+     * recognized by its magic number and decompressed as it is read, so
+     * it does not need a .gz name.
+     *
+     * @param file File to read.
+     * @return BufferedReader Reader over the file's text.
+     * @throws IOException If the file cannot be opened.
+     */
+    static BufferedReader openTextFile(File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+
+        try {
+            in.mark(GZIP_MAGIC.length);
+            boolean gzip = in.read() == GZIP_MAGIC[0] && in.read() == GZIP_MAGIC[1];
+            in.reset();
+            if (gzip) in = new GZIPInputStream(in, BUFFER_SIZE);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return new BufferedReader(new InputStreamReader(in, Charset.defaultCharset()), BUFFER_SIZE);
+    }
+
+    /**
+     * Works out how many colon separated columns follow the definition.
+     * Files written before the review schedule was added only have the
+     * MISTAKES column, and files written before answer times were kept
+     * end at DUE.
+     *
+     * @param header First line of a text deck.
+     * @return int Number of columns after TERM and DEFINITION.
+     */
+    static int countTrailingColumns(String header) {
+        if (header == null || !header.startsWith("TERM:DEFINITION:")) return 1;
+
+        int columns = 0;
+        for (int i = "TERM:DEFINITION".length(); i < header.length(); i++) {
+            if (header.charAt(i) == ':') columns++;
+        }
+        return Math.min(columns, MAX_TRAILING_COLUMNS);
+    }
+
+    /**
+     * Parses one line of a text deck. The term ends at the first colon and
+     * the trailing columns (MISTAKES, REPETITIONS, INTERVAL, EASE, DUE,
+     * ANSWERS, ANSWER_MEAN_MS, ANSWER_M2) are found from the end of the
+     * line, so the definition may itself contain colons. A line with a
+     * single colon is read as TERM:DEFINITION with no mistakes and a fresh
+     * review schedule.
+     *
+     * @param line Line from a deck file.
+     * @param columns Number of columns after the definition, from countTrailingColumns.
+     * @return Card The parsed card <b>or</b> null if the line is malformed.
+     */
+    static Card parseLine(String line, int columns) {
+        int first = line.indexOf(':');
+        if (first < 0) return null;
+
+        if (line.indexOf(':', first + 1) < 0) {
+            return new Card(line.substring(0, first), line.substring(first + 1), 0);
+        }
+
+        // Walk back from the end of the line to find where each trailing column starts.
+        int[] starts = new int[columns + 1];
+        starts[columns] = line.length() + 1;
+        for (int i = columns - 1; i >= 0; i--) {
+            int colon = line.lastIndexOf(':', starts[i + 1] - 2);
+            if (colon <= first) return null;
+            starts[i] = colon + 1;
+        }
+
+        int mistakes = parseCount(line, starts[0], starts[1] - 1);
+        int repetitions = columns > 1 ? parseCount(line, starts[1], starts[2] - 1) : 0;
+        int interval = columns > 2 ? parseCount(line, starts[2], starts[3] - 1) : 0;
+        int answers = columns > 5 ? parseCount(line, starts[5], starts[6] - 1) : 0;
+        if (mistakes < 0 || repetitions < 0 || interval < 0 || answers < 0) return null;
+
+        double ease = Card.DEFAULT_EASE;
+        long due = 0;
+        double meanMillis = 0;
+        double m2Millis = 0;
+        try {
+            if (columns > 3) ease = Double.parseDouble(line.substring(starts[3], starts[4] - 1));
+            if (columns > 4) due = Long.parseLong(line.substring(starts[4], starts[5] - 1));
+            if (columns > 6) meanMillis = Double.parseDouble(line.substring(starts[6], starts[7] - 1));
+            if (columns > 7) m2Millis = Double.parseDouble(line.substring(starts[7], starts[8] - 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        Card c = new Card(line.substring(0, first), line.substring(first + 1, starts[0] - 1),
+                mistakes, repetitions, interval, ease, due);
+        if (answers > 0) c.setAnswerStats(answers, meanMillis, m2Millis);
+        return c;
+    }
+
+    /**
+     * Parses a non-negative decimal count.
+     *
+     * @param line Line containing the count.
+     * @param start Index of the first digit.
+     * @param end Index just past the last digit.
+     * @return int The count <b>or</b> -1 if the field is empty, not a number or too large.
+     */
+    private static int parseCount(String line, int start, int end) {
+        if (start >= end) return -1;
+
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            value = value * 10 + (c - '0');
+            if (value > Integer.MAX_VALUE) return -1;
+        }
+        return (int) value;
+    }
+
+    /**
+     * Checks whether the last import applied a patch rather than merging a deck.
+     *
+     * @return boolean True if the last file imported was a patch.
+     */
+    public boolean wasPatch() {
+        return patch;
+    }
+
+    /**
+     * Gets the number of malformed text deck lines the last import skipped.
+     *
+     * @return long The number of lines that could not be parsed as a card.
+     */
+    public long getRejectedLines() {
+        return rejectedLines;
+    }
+
+    /**
+     * Gets the number of bytes read by the last import.
+     *
+     * @return long The size of the imported file, or of every imported file together.
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Describes the throughput of the last import.
+     *
+     * @return String Lines (or binary cards, or both for a mix of files) and bytes read along with their per second rates.
+     */
+    public String getThroughput() {
+        double seconds = Math.max(elapsedNanos, 1) / 1_000_000_000.0;
+        return String.format("Read %d %s (%d bytes) in %d ms: %.0f %s/sec, %.0f bytes/sec.",
+                linesRead, unit, bytesRead, elapsedNanos / 1_000_000, linesRead / seconds, unit, bytesRead / seconds);
+    }
+}
@@ -0,0 +1,544 @@
+package flashcards;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-ahead journal for a CardSet. Every change to the deck is appended
+ * to the current journal segment as it happens, and the segment is synced
+ * to disk in batches every SYNC_INTERVAL_MS instead of once per change.
+ *
+ * A journal directory holds:
+ *
+ * snapshot-N.deck   Binary deck with every change up to and including segment N.
+ * journal-N.log     Changes made after the previous segment was closed.
+ *
+ * A segment is closed and a new one started when it grows past
+ * COMPACT_THRESHOLD records or COMPACT_BYTES bytes, or when it has
+ * records and COMPACT_INTERVAL_MS has passed since the last one was
+ * closed. A background thread then folds the closed segments into a new
+ * snapshot by replaying them onto the previous snapshot, never touching
+ * the live deck, and deletes the files the snapshot replaces.
+ * On startup the newest snapshot is loaded and every later segment is
+ * replayed on top of it. A record cut short by a crash is ignored. The
+ * replayed segments are then compacted in the background, so sessions
+ * that each write a few changes do not pile up segments.
+ */
+public final class DeckJournal implements CardSetListener {
+    private static final long SYNC_INTERVAL_MS = 100;
+    private static final int COMPACT_THRESHOLD = 100_000;
+    private static final int COMPACT_BYTES = 64 << 20;
+    private static final long COMPACT_INTERVAL_MS = TimeUnit.MINUTES.toMillis(10);
+    private static final int MAX_STRING_BYTES = 1 << 26;
+
+    private static final byte OP_ADD = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final byte OP_MISTAKES = 3;
+    private static final byte OP_SCHEDULE = 4;
+    private static final byte OP_RESET = 5;
+    private static final byte OP_ANSWERS = 6;
+
+    private final File dir;
+    private final ScheduledExecutorService syncer;
+    private final ExecutorService compactor;
+
+    private long segment;          // Number of the segment being written.
+    private FileOutputStream segmentFile;
+    private DataOutputStream out;
+    private int records;           // Records in the current segment.
+    private boolean unsynced;
+    private IOException failure;
+
+    /**
+     * DeckJournal constructor. Use open to create a journal.
+     *
+     * @param dir Journal directory.
+     * @param segment Number of the first segment to write.
+     * @throws IOException If the segment cannot be created.
+     */
+    private DeckJournal(File dir, long segment) throws IOException {
+        this.dir = dir;
+        this.segment = segment;
+        openSegment();
+
+        this.syncer = Executors.newSingleThreadScheduledExecutor(runnable -> daemon(runnable, "flashcards-journal-sync"));
+        this.compactor = Executors.newSingleThreadExecutor(runnable -> daemon(runnable, "flashcards-journal-compact"));
+        this.syncer.scheduleWithFixedDelay(this::syncQuietly, SYNC_INTERVAL_MS, SYNC_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        this.syncer.scheduleWithFixedDelay(this::rollQuietly, COMPACT_INTERVAL_MS, COMPACT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Opens the journal in a directory, rebuilds the deck from its newest
+     * snapshot and the segments written after it, and starts recording
+     * every further change to the CardSet.
+     *
+     * @param dir Journal directory. It is created if it does not exist.
+     * @param cs Empty CardSet that receives the restored cards.
+     * @return DeckJournal The journal, already listening to the CardSet.
+     * @throws IOException If the directory cannot be read or written.
+     */
+    public static DeckJournal open(File dir, CardSet cs) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create journal directory: " + dir);
+
+        long snapshot = newestSnapshot(dir);
+        long lastSegment = snapshot;
+
+        // A crash in the middle of a compaction can leave files the newest snapshot already covers.
+        deleteCovered(dir, snapshot);
+
+        if (snapshot >= 0) {
+            for (Card c : BinaryDeckFormat.readCards(snapshotFile(dir, snapshot))) {
+                cs.restoreCard(c);
+            }
+        }
+        for (long n : segmentsAfter(dir, snapshot)) {
+            replay(segmentFile(dir, n), cs);
+            lastSegment = n;
+        }
+
+        DeckJournal journal = new DeckJournal(dir, lastSegment + 1);
+        cs.setListener(journal);
+
+        // Every open starts a new segment, so fold the replayed ones into a snapshot right away.
+        if (lastSegment > snapshot) {
+            long replayed = lastSegment;
+            journal.compactor.execute(() -> journal.compact(replayed));
+        }
+        return journal;
+    }
+
+    /**
+     * Records a new card with its statistics and schedule. Answer times
+     * follow in a record of their own, so the add record keeps the layout
+     * older segments were written with.
+     */
+    @Override
+    public synchronized void cardAdded(Card c) {
+        try {
+            out.writeByte(OP_ADD);
+            writeString(out, c.getTerm());
+            writeString(out, c.getDefinition());
+            out.writeInt(c.getMistakes());
+            writeSchedule(out, c);
+            if (c.getAnswers() > 0) writeAnswerStats(out, c);
+            recorded();
+        } catch (IOException e) {
+            failed(e);
+        }
+    }
+
+    /**
+     * Records the removal of a card by term.
+     */
+    @Override
+    public synchronized void cardRemoved(Card c) {
+        try {
+            out.writeByte(OP_REMOVE);
+            writeString(out, c.getTerm());
+            recorded();
+        } catch (IOException e) {
+            failed(e);
+        }
+    }
+
+    /**
+     * Records a card's new mistakes count.
+     */
+    @Override
+    public synchronized void mistakesChanged(Card c) {
+        try {
+            out.writeByte(OP_MISTAKES);
+            writeString(out, c.getTerm());
+            out.writeInt(c.getMistakes());
+            recorded();
+        } catch (IOException e) {
+            failed(e);
+        }
+    }
+
+    /**
+     * Records a card's new review schedule.
+     */
+    @Override
+    public synchronized void scheduleChanged(Card c) {
+        try {
+            out.writeByte(OP_SCHEDULE);
+            writeString(out, c.getTerm());
+            writeSchedule(out, c);
+            recorded();
+        } catch (IOException e) {
+            failed(e);
+        }
+    }
+
+    /**
+     * Records a card's new answer time statistics.
+     */
+    @Override
+    public synchronized void answerStatsChanged(Card c) {
+        try {
+            writeAnswerStats(out, c);
+            recorded();
+        } catch (IOException e) {
+            failed(e);
+        }
+    }
+
+    /**
+     * Records a reset of every card's mistakes.
+     */
+    @Override
+    public synchronized void mistakesReset() {
+        try {
+            out.writeByte(OP_RESET);
+            recorded();
+        } catch (IOException e) {
+            failed(e);
+        }
+    }
+
+    /**
+     * Syncs everything recorded so far, waits for the running compactions
+     * and stops the background threads.
+     *
+     * @throws IOException If the journal could not be written.
+     */
+    public void close() throws IOException {
+        // The sync thread may roll a segment, so it has to stop before the compactor does.
+        syncer.shutdown();
+        awaitQuietly(syncer);
+        compactor.shutdown();
+        awaitQuietly(compactor);
+
+        synchronized (this) {
+            sync();
+            out.close();
+            if (records == 0) Files.deleteIfExists(segmentFile(dir, segment).toPath());
+            if (failure != null) throw failure;
+        }
+    }
+
+    /**
+     * Waits up to a minute for a shut down executor to finish its tasks.
+     */
+    private static void awaitQuietly(ExecutorService executor) {
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Counts a written record and starts a new segment once the current
+     * one is big enough to be compacted.
+     */
+    private void recorded() throws IOException {
+        unsynced = true;
+        if (++records >= COMPACT_THRESHOLD || out.size() >= COMPACT_BYTES) roll();
+    }
+
+    /**
+     * Closes the current segment, starts the next one and queues the
+     * closed segment for compaction. Caller holds the lock.
+     */
+    private void roll() throws IOException {
+        sync();
+        out.close();
+        long closed = segment++;
+        openSegment();
+        compactor.execute(() -> compact(closed));
+    }
+
+    /**
+     * Periodic compaction run by the sync thread, so a long session that
+     * changes little still gets its records into a snapshot.
+     */
+    private synchronized void rollQuietly() {
+        if (records == 0 || failure != null) return;
+        try {
+            roll();
+        } catch (IOException e) {
+            failed(e);
+        }
+    }
+
+    /**
+     * Flushes buffered records and forces them to disk. Caller holds the lock.
+     */
+    private void sync() throws IOException {
+        if (!unsynced) return;
+        out.flush();
+        segmentFile.getChannel().force(false);
+        unsynced = false;
+    }
+
+    /**
+     * Periodic group commit run by the sync thread.
+     */
+    private synchronized void syncQuietly() {
+        try {
+            sync();
+        } catch (IOException e) {
+            failed(e);
+        }
+    }
+
+    /**
+     * Remembers the first write failure so close can report it.
+     */
+    private void failed(IOException e) {
+        if (failure == null) {
+            failure = e;
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Starts writing the segment numbered by the segment field.
+     */
+    private void openSegment() throws IOException {
+        segmentFile = new FileOutputStream(segmentFile(dir, segment), true);
+        out = new DataOutputStream(new BufferedOutputStream(segmentFile));
+        records = 0;
+    }
+
+    /**
+     * Folds every closed segment up to and including upTo into a new
+     * snapshot. Runs on the compaction thread against files only.
+     *
+     * @param upTo Number of the newest closed segment.
+     */
+    private void compact(long upTo) {
+        try {
+            long previous = newestSnapshot(dir);
+            CardSet folded = new CardSet();
+
+            if (previous >= 0) {
+                for (Card c : BinaryDeckFormat.readCards(snapshotFile(dir, previous))) {
+                    folded.restoreCard(c);
+                }
+            }
+            for (long n : segmentsAfter(dir, previous)) {
+                if (n > upTo) break;
+                replay(segmentFile(dir, n), folded);
+            }
+
+            File tmp = new File(dir, "snapshot.tmp");
+            BinaryDeckFormat.write(folded, tmp);
+            Files.move(tmp.toPath(), snapshotFile(dir, upTo).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            // The new snapshot is in place, so everything it covers can go.
+            deleteCovered(dir, upTo);
+        } catch (IOException e) {
+            synchronized (this) {
+                failed(e);
+            }
+        }
+    }
+
+    /**
+     * Applies the records of one segment to a CardSet. Stops quietly at
+     * a record that was only partly written.
+     *
+     * @param file Segment file.
+     * @param cs CardSet to apply the records to. It must not have a listener.
+     * @throws IOException If the segment cannot be read.
+     */
+    private static void replay(File file, CardSet cs) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                int op = in.read();
+                if (op < 0) return;
+
+                switch (op) {
+                    case OP_ADD:
+                        cs.restoreCard(new Card(readString(in), readString(in), in.readInt(),
+                                in.readInt(), in.readInt(), in.readDouble(), in.readLong()));
+                        break;
+                    case OP_REMOVE: {
+                        cs.removeAll(List.of(readString(in)));
+                        break;
+                    }
+                    case OP_MISTAKES: {
+                        Card c = cs.getCardByTerm(readString(in));
+                        int mistakes = in.readInt();
+                        if (c != null) c.setMistakes(mistakes);
+                        break;
+                    }
+                    case OP_SCHEDULE: {
+                        Card c = cs.getCardByTerm(readString(in));
+                        int repetitions = in.readInt();
+                        int interval = in.readInt();
+                        double ease = in.readDouble();
+                        long due = in.readLong();
+                        if (c != null) c.setSchedule(repetitions, interval, ease, due);
+                        break;
+                    }
+                    case OP_RESET:
+                        cs.resetMistakes();
+                        break;
+                    case OP_ANSWERS: {
+                        Card c = cs.getCardByTerm(readString(in));
+                        int answers = in.readInt();
+                        double meanMillis = in.readDouble();
+                        double m2Millis = in.readDouble();
+                        if (c != null) c.setAnswerStats(answers, meanMillis, m2Millis);
+                        break;
+                    }
+                    default:
+                        // Garbage after a torn write; nothing after it can be trusted.
+                        return;
+                }
+            }
+        } catch (EOFException e) {
+            // The last record was cut short by a crash.
+        }
+    }
+
+    /**
+     * Writes the review schedule fields of a card.
+     */
+    private static void writeSchedule(DataOutputStream out, Card c) throws IOException {
+        out.writeInt(c.getRepetitions());
+        out.writeInt(c.getInterval());
+        out.writeDouble(c.getEase());
+        out.writeLong(c.getDue());
+    }
+
+    /**
+     * Writes an answer time record for a card.
+     */
+    private static void writeAnswerStats(DataOutputStream out, Card c) throws IOException {
+        out.writeByte(OP_ANSWERS);
+        writeString(out, c.getTerm());
+        out.writeInt(c.getAnswers());
+        out.writeDouble(c.getMeanAnswerMillis());
+        out.writeDouble(c.getAnswerM2Millis());
+    }
+
+    /**
+     * Writes a length-prefixed UTF-8 string.
+     */
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a length-prefixed UTF-8 string.
+     *
+     * @throws EOFException If the string was cut short or its length is garbage.
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_STRING_BYTES) throw new EOFException("Torn string length " + length);
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Finds the number of the newest snapshot in a journal directory.
+     *
+     * @return long The snapshot's segment number <b>or</b> -1 if there is none.
+     */
+    private static long newestSnapshot(File dir) {
+        long newest = -1;
+        for (long n : numberedFiles(dir, "snapshot-", ".deck")) {
+            newest = Math.max(newest, n);
+        }
+        return newest;
+    }
+
+    /**
+     * Deletes the older snapshots and the segments a snapshot covers.
+     *
+     * @param dir Journal directory.
+     * @param snapshot Number of the newest snapshot, or -1 if there is none.
+     * @throws IOException If a file cannot be deleted.
+     */
+    private static void deleteCovered(File dir, long snapshot) throws IOException {
+        if (snapshot < 0) return;
+
+        for (long n : numberedFiles(dir, "snapshot-", ".deck")) {
+            if (n < snapshot) Files.deleteIfExists(snapshotFile(dir, n).toPath());
+        }
+        for (long n : numberedFiles(dir, "journal-", ".log")) {
+            if (n <= snapshot) Files.deleteIfExists(segmentFile(dir, n).toPath());
+        }
+    }
+
+    /**
+     * Lists the segment numbers greater than after, in ascending order.
+     */
+    private static List<Long> segmentsAfter(File dir, long after) {
+        List<Long> segments = new ArrayList<>();
+        for (long n : numberedFiles(dir, "journal-", ".log")) {
+            if (n > after) segments.add(n);
+        }
+        segments.sort(null);
+        return segments;
+    }
+
+    /**
+     * Lists the numbers N of the files named prefix + N + suffix in a directory.
+     */
+    private static List<Long> numberedFiles(File dir, String prefix, String suffix) {
+        List<Long> numbers = new ArrayList<>();
+        String[] names = dir.list();
+        if (names == null) return numbers;
+
+        for (String name : names) {
+            if (!name.startsWith(prefix) || !name.endsWith(suffix)) continue;
+            try {
+                numbers.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())));
+            } catch (NumberFormatException e) {
+                // Not one of ours.
+            }
+        }
+        return numbers;
+    }
+
+    /**
+     * Path of the snapshot that covers segments up to n.
+     */
+    private static File snapshotFile(File dir, long n) {
+        return new File(dir, "snapshot-" + n + ".deck");
+    }
+
+    /**
+     * Path of journal segment n.
+     */
+    private static File segmentFile(File dir, long n) {
+        return new File(dir, "journal-" + n + ".log");
+    }
+
+    /**
+     * Creates a daemon thread so the journal never keeps the program alive.
+     */
+    private static Thread daemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -0,0 +1,177 @@
+package flashcards;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes deck patches: the cards changed since the deck was
+ * last saved, so a large deck can be saved by writing only its changes.
+ * Applying the patches to the deck they were made from, in order, gives
+ * back the same cards with the same statistics, though cards changed
+ * in more than one way may end up in a different place. Layout:
+ *
+ * PATCH:TERM:DEFINITION:MISTAKES:REPETITIONS:INTERVAL:EASE:DUE:ANSWERS:ANSWER_MEAN_MS:ANSWER_M2
+ * !                                   Every card's mistakes were reset.
+ * -:I am                              The card was removed.
+ * +:German:Deutsche:0:2:6:2.5:1591574400000:3:1840.0:96800.0   The card as it is now.
+ *
+ * A reset comes first. Each changed term then has one line: "+" with the
+ * whole card if the deck still has a card with the term, "-" if not.
+ * The columns after "+:" are those of the header, so patches written
+ * before answer times were kept still apply. Files ending in EXTENSION
+ * (or EXTENSION followed by .gz, compressed) are exported as patches.
+ * Patches are recognized on import by their header, not their name.
+ */
+public final class DeckPatch {
+    public static final String EXTENSION = ".patch";
+    private static final String PREFIX = "PATCH:";
+    public static final String HEADER = PREFIX + DeckImporter.HEADER;
+
+    private DeckPatch() {
+    }
+
+    /**
+     * Checks whether a path should be exported as a patch.
+     *
+     * @param path Path of the export file.
+     * @return boolean True if the path ends with the patch extension.
+     */
+    public static boolean hasPatchExtension(String path) {
+        return path.toLowerCase().endsWith(EXTENSION);
+    }
+
+    /**
+     * Checks whether a file starts with the patch header.
+     *
+     * @param file File to check.
+     * @return boolean True if the file is a patch.
+     * @throws IOException If the file cannot be read.
+     */
+    public static boolean isPatch(File file) throws IOException {
+        try (BufferedReader br = DeckImporter.openTextFile(file)) {
+            return countColumns(br.readLine()) > 0;
+        }
+    }
+
+    /**
+     * Works out how many columns follow the definition in the card lines
+     * of a patch.
+     *
+     * @param header First line of the file.
+     * @return int Number of columns after TERM and DEFINITION <b>or</b> -1 if the line is not a patch header.
+     */
+    private static int countColumns(String header) {
+        if (header == null || !header.startsWith(PREFIX + "TERM:DEFINITION:")) return -1;
+        return DeckImporter.countTrailingColumns(header.substring(PREFIX.length()));
+    }
+
+    /**
+     * Writes the changes made to a CardSet since it was last saved. The
+     * CardSet is not marked as saved; the caller does that once the patch
+     * is safely written.
+     *
+     * @param cs CardSet whose changes are written.
+     * @param file Destination file, replaced if it exists.
+     * @return int Number of changed cards written.
+     * @throws IOException If the file cannot be written.
+     */
+    public static int write(CardSet cs, File file) throws IOException {
+        int numChanges = 0;
+
+        try (DeckTextWriter writer = new DeckTextWriter(file)) {
+            writer.writeLine(HEADER);
+            if (cs.wereMistakesReset()) writer.writeLine("!");
+
+            for (String term : cs.getChangedTerms()) {
+                Card c = cs.getCardByTerm(term);
+                if (c == null) {
+                    writer.writeLine("-:" + term);
+                } else {
+                    writer.writeCard("+:", c);
+                }
+                numChanges++;
+            }
+        }
+        return numChanges;
+    }
+
+    /**
+     * Applies a patch to a CardSet. A card in the patch replaces the card
+     * with its term, or is updated in place if the definition is the same,
+     * so mistakes and schedules are restored exactly as they were saved.
+     * Every term has at most one line, so removals, replaced cards and in
+     * place mistake updates are collected and applied as one batch each at
+     * the end: one removeAll drops removed and replaced cards together, and
+     * the new cards are restored after it.
+     *
+     * @param file Patch file.
+     * @param cs CardSet the patch was made from, or a copy of it.
+     * @return int Number of lines applied after the header.
+     * @throws IOException If the file cannot be read or is not a patch.
+     */
+    public static int apply(File file, CardSet cs) throws IOException {
+        int numApplied = 0;
+        List<String> removed = new ArrayList<>();
+        List<Card> restored = new ArrayList<>();
+        Map<String, Integer> mistakes = new LinkedHashMap<>();
+
+        try (BufferedReader br = DeckImporter.openTextFile(file)) {
+            int columns = countColumns(br.readLine());
+            if (columns < 0) throw new IOException("Not a deck patch: " + file);
+
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.equals("!")) {
+                    cs.resetMistakes();
+                } else if (line.startsWith("-:")) {
+                    removed.add(line.substring(2));
+                } else if (line.startsWith("+:")) {
+                    Card c = DeckImporter.parseLine(line.substring(2), columns);
+                    if (c == null) continue;
+                    applyCard(cs, c, mistakes, removed, restored);
+                } else {
+                    continue;
+                }
+                numApplied++;
+            }
+        }
+
+        cs.updateMistakes(mistakes);
+        cs.removeAll(removed);
+        for (Card c : restored) {
+            cs.restoreCard(c);
+        }
+        return numApplied;
+    }
+
+    /**
+     * Brings the CardSet's card with the term of the given card in line
+     * with it, adding the card if the term is new.
+     *
+     * @param cs CardSet being patched.
+     * @param c Card as it was when the patch was written.
+     * @param mistakes Collects the mistakes of cards updated in place, set by the caller in one batch.
+     * @param removed Collects the terms of cards to replace, removed by the caller in one batch.
+     * @param restored Collects the cards to add, restored by the caller after the removals.
+     */
+    private static void applyCard(CardSet cs, Card c, Map<String, Integer> mistakes, List<String> removed,
+            List<Card> restored) {
+        Card existing = cs.getCardByTerm(c.getTerm());
+
+        if (existing != null && existing.getTerm().equals(c.getTerm())
+                && existing.getDefinition().equals(c.getDefinition())) {
+            mistakes.put(c.getTerm(), c.getMistakes());
+            existing.setSchedule(c.getRepetitions(), c.getInterval(), c.getEase(), c.getDue());
+            existing.setAnswerStats(c.getAnswers(), c.getMeanAnswerMillis(), c.getAnswerM2Millis());
+            return;
+        }
+
+        if (existing != null) removed.add(existing.getTerm());
+        restored.add(c);
+    }
+}
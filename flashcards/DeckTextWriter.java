@@ -0,0 +1,164 @@
+package flashcards;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams the lines of a text deck or patch to a file. Text is copied
+ * into a reused char buffer, encoded a buffer at a time into a reused
+ * byte buffer and written to a FileChannel, so writing a deck takes the
+ * same memory whatever its size and no line is built as a String. Files
+ * ending in DeckExporter.GZIP_EXTENSION are gzip compressed on the way out.
+ *
+ * Text is encoded in the platform charset, like FileReader and
+ * FileWriter, so text decks written before stay readable.
+ */
+final class DeckTextWriter implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final WritableByteChannel channel;
+    private final CharsetEncoder encoder;
+    private final CharBuffer chars;
+    private final ByteBuffer bytes;
+
+    /**
+     * DeckTextWriter constructor. Creates or truncates the file.
+     *
+     * @param file File to write.
+     * @throws IOException If the file cannot be opened.
+     */
+    DeckTextWriter(File file) throws IOException {
+        FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+        if (DeckExporter.hasGzipExtension(file.getPath())) {
+            try {
+                this.channel = Channels.newChannel(new GZIPOutputStream(Channels.newOutputStream(fileChannel), BUFFER_SIZE));
+            } catch (IOException e) {
+                fileChannel.close();
+                throw e;
+            }
+        } else {
+            this.channel = fileChannel;
+        }
+
+        this.encoder = Charset.defaultCharset().newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.chars = CharBuffer.allocate(BUFFER_SIZE);
+        this.bytes = ByteBuffer.allocate(BUFFER_SIZE);
+    }
+
+    /**
+     * Writes a card as a line with the columns of DeckImporter.HEADER,
+     * after an optional prefix such as the "+:" of a patch.
+     *
+     * @param prefix Text written before the card, or "".
+     * @param c Card to write.
+     * @throws IOException If the file cannot be written.
+     */
+    void writeCard(String prefix, Card c) throws IOException {
+        append(prefix);
+        append(c.getTerm());
+        append(":");
+        append(c.getDefinition());
+        append(":");
+        append(Integer.toString(c.getMistakes()));
+        append(":");
+        append(Integer.toString(c.getRepetitions()));
+        append(":");
+        append(Integer.toString(c.getInterval()));
+        append(":");
+        append(Double.toString(c.getEase()));
+        append(":");
+        append(Long.toString(c.getDue()));
+        append(":");
+        append(Integer.toString(c.getAnswers()));
+        append(":");
+        append(Double.toString(c.getMeanAnswerMillis()));
+        append(":");
+        append(Double.toString(c.getAnswerM2Millis()));
+        append("\n");
+    }
+
+    /**
+     * Writes a line of text followed by a newline.
+     *
+     * @param s Text of the line.
+     * @throws IOException If the file cannot be written.
+     */
+    void writeLine(String s) throws IOException {
+        append(s);
+        append("\n");
+    }
+
+    /**
+     * Copies text into the char buffer, encoding the buffer each time it fills.
+     */
+    private void append(String s) throws IOException {
+        for (int start = 0; start < s.length(); ) {
+            int end = start + Math.min(chars.remaining(), s.length() - start);
+            // getChars copies in bulk where CharBuffer.put(String) copies char by char.
+            s.getChars(start, end, chars.array(), chars.arrayOffset() + chars.position());
+            chars.position(chars.position() + end - start);
+            start = end;
+            if (!chars.hasRemaining()) encode(false);
+        }
+    }
+
+    /**
+     * Encodes the char buffer into the byte buffer, writing the byte buffer
+     * out each time it fills. A surrogate pair cut in half by the end of
+     * the char buffer stays in it until the rest of the pair arrives.
+     *
+     * @param endOfInput True once no more text follows.
+     */
+    private void encode(boolean endOfInput) throws IOException {
+        chars.flip();
+        while (encoder.encode(chars, bytes, endOfInput).isOverflow()) {
+            drain();
+        }
+        chars.compact();
+    }
+
+    /**
+     * Writes the buffered bytes to the channel and empties the buffer.
+     */
+    private void drain() throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        bytes.clear();
+    }
+
+    /**
+     * Encodes and writes out the buffered text, finishes the gzip stream
+     * if there is one and closes the file.
+     *
+     * @throws IOException If the file cannot be written.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            encode(true);
+            while (encoder.flush(bytes).isOverflow()) {
+                drain();
+            }
+            drain();
+        } finally {
+            channel.close();
+        }
+    }
+}
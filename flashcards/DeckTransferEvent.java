@@ -0,0 +1,30 @@
+package flashcards;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for one deck import or export. The event duration is the
+ * time spent reading or writing the deck.
+ */
+@Name("flashcards.DeckTransfer")
+@Label("Flashcards Deck Transfer")
+@Category("Flashcards")
+@Description("A deck import or export")
+final class DeckTransferEvent extends jdk.jfr.Event {
+    @Label("Operation")
+    String operation;
+
+    @Label("Path")
+    String path;
+
+    @Label("Cards")
+    long cards;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+}
@@ -3,33 +3,69 @@ package flashcards;
 import java.io.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Scanner;
 
 public final class FlashcardIOHandler {
-    private final CardSet cs;
+    public static final String SESSION_DECK = "default";
+    private static final int SEARCH_PAGE_SIZE = 20;
+
+    private final CardSet sessionDeck; // The deck the session started with; -import, -export and -journal use it.
+    private CardSet cs;                // The deck in use, changed by the use command.
+    private CardStore store;           // Replaces cs for the deck commands with -backend compact or -map, else null.
+    private String deckName;
+    private Workspace workspace;
     private final Scanner scanner;
-    private final List<String> log;
+    private final PrintStream out;
+    private final SessionLog log;
+    private final Metrics metrics;
 
+    private DeckJournal journal; // Null unless -journal is present at runtime.
     private String finalExportPath; // This should be null unless -export is present at runtime.
+    private String metricsPath; // Null unless -metrics is present at runtime.
 
     /**
      * Default constructor for FlashcardIOHandler. This class
-     * will manage all input by the user.
+     * will manage all input by the user and print to System.out.
      */
     public FlashcardIOHandler(Scanner scanner) {
-        this.cs = new CardSet();
+        this(scanner, System.out);
+    }
+
+    /**
+     * FlashcardIOHandler constructor with an explicit output sink. Script
+     * mode passes a buffered stream here so output is written in large
+     * blocks instead of one console write per line.
+     *
+     * @param scanner Source of user input.
+     * @param out Destination of all program output.
+     */
+    public FlashcardIOHandler(Scanner scanner, PrintStream out) {
+        this.sessionDeck = new CardSet();
+        this.cs = sessionDeck;
+        this.deckName = SESSION_DECK;
         this.scanner = scanner;
-        this.log = new ArrayList<>();
+        this.out = out;
+        this.log = new SessionLog();
+        this.metrics = new Metrics(cs);
+        setWorkspacePath(".");
         finalExportPath = null;
     }
 
     /**
-     * Main logic function processing user input.
+     * Main logic function processing user input. The time each command
+     * takes is recorded in the session metrics.
      *
      * @param input String from CLI. Passed in from main function.
      */
     public void processInput(String input) {
+        CommandEvent event = new CommandEvent();
+        event.begin();
+        long start = System.nanoTime();
+        String rawInput = input;
         input = input.toLowerCase();
+        String command = input;
+
         switch(input) {
             case "add":
                 addCommand();
@@ -44,7 +80,10 @@ public final class FlashcardIOHandler {
                 exportCommand();
                 break;
             case "ask":
-                askCommand();
+                askCommand(false);
+                break;
+            case "ask weighted":
+                askCommand(true);
                 break;
             case "log":
                 logCommand();
@@ -55,9 +94,60 @@ public final class FlashcardIOHandler {
             case "reset stats":
                 resetStatsCommand();
                 break;
+            case "review":
+                reviewCommand();
+                break;
+            case "stats":
+                statsCommand();
+                break;
+            case "use":
+                printTextNL("Deck name:");
+                useCommand(getInput());
+                break;
+            case "decks":
+                decksCommand();
+                break;
+            case "search":
+                printTextNL("Search for:");
+                searchCommand(getInput());
+                break;
+            case "slowest cards":
+                printTextNL("How many cards?");
+                slowestCardsCommand(getInput().trim());
+                break;
+            case "card stats":
+                printTextNL("The card:");
+                cardStatsCommand(getInput());
+                break;
+            case "flush":
+                // Lets a script push its transcript so far out of the output buffer.
+                flush();
+                break;
             default:
-                printText("Invalid input for menu. Please only enter listed menu actions.\n");
+                if (input.startsWith("hardest card ")) {
+                    hardestCardsCommand(input.substring("hardest card ".length()).trim());
+                    command = "hardest card n";
+                } else if (input.startsWith("slowest cards ")) {
+                    slowestCardsCommand(input.substring("slowest cards ".length()).trim());
+                    // Same key as the prompted form; "slowest cards n" would overflow the stats column.
+                    command = "slowest cards";
+                } else if (input.startsWith("card stats ")) {
+                    cardStatsCommand(rawInput.substring("card stats ".length()).trim());
+                    command = "card stats";
+                } else if (input.startsWith("search ")) {
+                    searchCommand(rawInput.substring("search ".length()).trim());
+                    command = "search";
+                } else if (input.startsWith("use ")) {
+                    // The deck name keeps its case, since it names a file.
+                    useCommand(rawInput.substring("use ".length()).trim());
+                    command = "use";
+                } else {
+                    printText("Invalid input for menu. Please only enter listed menu actions.\n");
+                    command = "invalid";
+                }
         }
+
+        metrics.recordCommand(command, start, event);
     }
 
     /**
@@ -68,22 +158,28 @@ public final class FlashcardIOHandler {
         String term;
         String definition;
 
+        if (!(deck() instanceof MutableCardStore)) {
+            printTextNL("Cards can't be added to this deck.");
+            return;
+        }
+        MutableCardStore deck = (MutableCardStore) deck();
+
         printTextNL("The card:");
         term = getInput();
-        if (cs.getCardByTerm(term) != null) {
+        if (deck.getCardByTerm(term) != null) {
             printTextNL("The card \"" + term + "\" already exists.");
             return;
         }
 
         printTextNL("The definition of the card:");
         definition = getInput();
-        if (cs.getCardByDefinition(definition) != null) {
+        if (deck.getCardByDefinition(definition) != null) {
             printTextNL("The definition \"" + definition + "\" already exists.");
             return;
         }
 
         printTextNL("The pair (\"" + term + "\":\"" + definition + "\") has been added.");
-        cs.addCard(term, definition, 0);
+        deck.addCard(term, definition, 0);
     }
 
     /**
@@ -93,11 +189,12 @@ public final class FlashcardIOHandler {
     private void removeCommand() {
         String term;
 
+        if (!requireCardSet("remove")) return;
+
         printTextNL("The card:");
         term = getInput();
 
-        if (cs.getCardByTerm(term) != null) {
-            cs.removeCard(term);
+        if (cs.removeAll(List.of(term)) > 0) {
             printTextNL("The card has been removed.");
         } else {
             printTextNL("Can't remove \"" + term + "\": there is no such card.");
@@ -106,15 +203,18 @@ public final class FlashcardIOHandler {
 
     /**
      * Process the import command from user input. Prints an
-     * error if the file path input is non-existent.
+     * error if the file path input is non-existent. The path may
+     * also be a directory or a glob such as decks/*.txt.
      */
     private void importCommand() {
         String path;
 
+        if (!requireCardSet("import")) return;
+
         printTextNL("File name:");
         path = getInput();
 
-        if (!(new File(path).exists())) {
+        if (!DeckImporter.hasDeckFiles(path)) {
             printTextNL("File not found.");
         } else {
             printTextNL(importCardsFromFile(path) + " cards have been loaded.");
@@ -134,16 +234,26 @@ public final class FlashcardIOHandler {
     }
 
     /**
-     * Processes the ask command from user input. First of all, the way we get random questions
-     * without randomly displaying the same questions over and over again is by creating a CardSet
-     * object that has the same cards as the instance of CardSet. Then, we call the getRandomCard()
-     * function on the DUPLICATE CardSet. Each time we ask, we remove that card from the duplicate set.
-     * Once we've cycled through the deck of flashcards but there are still more questions to ask,
-     * we just add all the cards back into the duplicate deck and continue. This ensures every card
-     * will get asked once per cycle (just like a normal flashcard deck).
+     * Processes the ask command from user input. The way we get random questions without
+     * randomly displaying the same questions over and over again is by dealing card indexes
+     * from a CardShuffler. It shuffles the deck's indexes in place one card at a time and
+     * reshuffles when the cycle ends. This ensures every card will get asked once per cycle
+     * (just like a normal flashcard deck) without copying the deck. An answer
+     * within a typo or two of the card's definition is accepted, and one close
+     * to another card's definition is pointed out.
+     *
+     * In weighted mode ("ask weighted") cards are drawn instead, each with a
+     * probability that grows with its mistakes, so the cards that are missed
+     * most come up most. Every wrong answer raises the card's weight for the
+     * rest of the session.
+     *
+     * @param weighted True to draw cards weighted by mistakes instead of dealing them.
      */
-    private void askCommand() {
-        CardSet tempCardSet = new CardSet(cs);
+    private void askCommand(boolean weighted) {
+        if (weighted && !requireCardSet("ask weighted")) return;
+
+        CardStore deck = deck();
+        CardShuffler shuffler = weighted ? null : deck.shuffledIndexes();
         int numQuestions;
         String input;
 
@@ -151,47 +261,94 @@ public final class FlashcardIOHandler {
         numQuestions = Integer.parseInt(getInput());
 
         while(numQuestions-- != 0) {
-            if (tempCardSet.size() == 0) tempCardSet.addCards(cs);
-
-            Card c = tempCardSet.getRandomCard();
+            Card c = weighted ? cs.getWeightedRandomCard() : deck.getCard(shuffler.nextInt());
 
             printTextNL("Print the definition of \"" + c.getTerm() + "\":");
+            long asked = System.nanoTime();
             input = getInput();
+            c.recordAnswerTime(System.nanoTime() - asked);
 
             if (input.equalsIgnoreCase(c.getDefinition())) {
                 printTextNL("Correct answer");
-            } else if (cs.getCardByDefinition(input) != null) {
+            } else if (deck.getCardByDefinition(input) != null) {
                 printTextNL("Wrong answer. The correct one is \"" + c.getDefinition() + "\", " +
-                        "you've just written the definition of \"" + cs.getCardByDefinition(input).getTerm() + "\".");
-                cs.getCardByTerm(c.getTerm()).setMistakes(cs.getCardByTerm(c.getTerm()).getMistakes() + 1);
+                        "you've just written the definition of \"" + deck.getCardByDefinition(input).getTerm() + "\".");
+                c.setMistakes(c.getMistakes() + 1);
+            } else if (CardSet.isApproximately(input, c.getDefinition())) {
+                // Judge a typo against this card's own definition; another card may be closer.
+                printTextNL("Correct answer. Did you mean \"" + c.getDefinition() + "\"?");
+            } else {
+                // The deck-wide lookup only picks the hint. Only a CardSet has the BK-tree it needs.
+                Card closest = store == null ? cs.getCardByApproximateDefinition(input) : null;
+
+                if (closest != null && closest != c) {
+                    printTextNL("Wrong answer. The correct one is \"" + c.getDefinition() + "\", " +
+                            "did you mean the definition of \"" + closest.getTerm() + "\"?");
+                    c.setMistakes(c.getMistakes() + 1);
+                } else {
+                    printTextNL("Wrong answer. The correct one is \"" + c.getDefinition() + "\".");
+                    c.setMistakes(c.getMistakes() + 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Processes the review command from user input. Cards are served by the
+     * deck's ReviewScheduler in order of their due time, and each answer moves the
+     * card's next review further out (correct) or back to tomorrow (wrong).
+     * The session ends early when no more cards are due.
+     */
+    private void reviewCommand() {
+        if (!requireCardSet("review")) return;
+
+        ReviewScheduler scheduler = cs.getReviewScheduler();
+        int numQuestions;
+        String input;
+
+        printTextNL("How many cards to review?");
+        numQuestions = Integer.parseInt(getInput());
+
+        while(numQuestions-- != 0) {
+            long now = System.currentTimeMillis();
+            Card c = scheduler.nextDue(now);
+
+            if (c == null) {
+                printTextNL("No more cards are due for review.");
+                return;
+            }
+
+            printTextNL("Print the definition of \"" + c.getTerm() + "\":");
+            long asked = System.nanoTime();
+            input = getInput();
+            c.recordAnswerTime(System.nanoTime() - asked);
+
+            if (input.equalsIgnoreCase(c.getDefinition())) {
+                printTextNL("Correct answer");
+                scheduler.answer(c, ReviewScheduler.QUALITY_CORRECT, now);
             } else {
                 printTextNL("Wrong answer. The correct one is \"" + c.getDefinition() + "\".");
-                cs.getCardByTerm(c.getTerm()).setMistakes(cs.getCardByTerm(c.getTerm()).getMistakes() + 1);
+                c.setMistakes(c.getMistakes() + 1);
+                scheduler.answer(c, ReviewScheduler.QUALITY_WRONG, now);
             }
 
-            tempCardSet.removeCard(c.getTerm());
+            printTextNL("Next review of \"" + c.getTerm() + "\" in " + c.getInterval() + " day(s).");
         }
     }
 
     /**
      * Prints a log of all user interactions with the program to a file.
-     * First it creates the output String that will be written to a file
-     * via a StringBuilder. Then output the log to a file via PrintWriter.
+     * The session log has already spilled the interactions to disk, so
+     * it is streamed to the file instead of being assembled in memory.
      */
     public void logCommand() {
         printTextNL("File name:");
         File file = new File(getInput());
-        StringBuilder output = new StringBuilder();
-
-        for (String s : log) {
-            output.append(s);
-        }
 
-        try (PrintWriter pw = new PrintWriter(file)) {
-            pw.print(output);
-        } catch (FileNotFoundException e) {
-            printTextNL("ERROR: FileNotFoundException when writing to file.\n" +
-                    "Text to write:\n\"" + output + "\"");
+        try {
+            log.writeTo(file);
+        } catch (IOException e) {
+            printTextNL("ERROR: IOException when writing to file.");
             e.printStackTrace();
         }
 
@@ -202,22 +359,15 @@ public final class FlashcardIOHandler {
      * Prints the card(s) most often missed to the screen.
      */
     public void hardestCardCommand() {
-        ArrayList<Card> hardestCards = new ArrayList<>();
-        int mistakes = 0;
-
-        for (int i = 0; i < cs.size(); i++) {
-            if (cs.getCard(i).getMistakes() > mistakes) {
-                mistakes = cs.getCard(i).getMistakes();
-                hardestCards.clear();
-                hardestCards.add(cs.getCard(i));
-            } else if (cs.getCard(i).getMistakes() != 0 && cs.getCard(i).getMistakes() == mistakes) {
-                hardestCards.add(cs.getCard(i));
-            }
-        }
+        List<Card> hardestCards = deck().getHardestCards();
 
         if (hardestCards.size() == 0) {
             printTextNL("There are no cards with errors.");
-        } else if (hardestCards.size() == 1) {
+            return;
+        }
+
+        int mistakes = hardestCards.get(0).getMistakes();
+        if (hardestCards.size() == 1) {
             printTextNL("The hardest card is \"" + hardestCards.get(0).getTerm() + "\". You have " +
                     mistakes + " errors answering it.");
         } else {
@@ -230,46 +380,215 @@ public final class FlashcardIOHandler {
         }
     }
 
+    /**
+     * Prints up to n of the most often missed cards, most mistakes first.
+     *
+     * @param n Number of cards to list, as typed after "hardest card".
+     */
+    public void hardestCardsCommand(String n) {
+        int k;
+
+        try {
+            k = Integer.parseInt(n);
+        } catch (NumberFormatException e) {
+            k = -1;
+        }
+        if (k <= 0) {
+            printTextNL("Invalid number of cards: \"" + n + "\".");
+            return;
+        }
+
+        List<Card> hardestCards = deck().getHardestCards(k);
+        if (hardestCards.size() == 0) {
+            printTextNL("There are no cards with errors.");
+            return;
+        }
+
+        printTextNL("The " + hardestCards.size() + " hardest cards are:");
+        for (Card c : hardestCards) {
+            printTextNL("\"" + c.getTerm() + "\": " + c.getMistakes() + " errors");
+        }
+    }
+
+    /**
+     * Prints up to n of the cards that take longest to answer, slowest
+     * mean answer time first.
+     *
+     * @param n Number of cards to list, as typed after "slowest cards".
+     */
+    public void slowestCardsCommand(String n) {
+        int k;
+
+        if (!requireCardSet("slowest cards")) return;
+
+        try {
+            k = Integer.parseInt(n);
+        } catch (NumberFormatException e) {
+            k = -1;
+        }
+        if (k <= 0) {
+            printTextNL("Invalid number of cards: \"" + n + "\".");
+            return;
+        }
+
+        List<Card> slowestCards = cs.getSlowestCards(k);
+        if (slowestCards.size() == 0) {
+            printTextNL("There are no cards with timed answers.");
+            return;
+        }
+
+        printTextNL("The " + slowestCards.size() + " slowest cards are:");
+        for (Card c : slowestCards) {
+            printTextNL(String.format(Locale.ROOT, "\"%s\": %.2f s on average over %d answers",
+                    c.getTerm(), c.getMeanAnswerMillis() / 1000, c.getAnswers()));
+        }
+    }
+
+    /**
+     * Prints the statistics of one card: mistakes, answer times and
+     * review schedule.
+     *
+     * @param term Term of the card (IGNORES CASE), as typed after "card stats".
+     */
+    public void cardStatsCommand(String term) {
+        Card c = deck().getCardByTerm(term);
+        if (c == null) {
+            printTextNL("Can't show \"" + term + "\": there is no such card.");
+            return;
+        }
+
+        printTextNL("\"" + c.getTerm() + "\": \"" + c.getDefinition() + "\"");
+        printTextNL("Errors: " + c.getMistakes());
+        if (c.getAnswers() == 0) {
+            printTextNL("Answers: 0");
+        } else {
+            printTextNL(String.format(Locale.ROOT, "Answers: %d, %.2f s on average, standard deviation %.2f s",
+                    c.getAnswers(), c.getMeanAnswerMillis() / 1000, c.getAnswerStdDevMillis() / 1000));
+        }
+        printTextNL("Correct reviews in a row: " + c.getRepetitions() + ", interval: " + c.getInterval() + " day(s)");
+    }
+
+    /**
+     * Lists the cards whose term or definition contain the words of a
+     * query, best match first, SEARCH_PAGE_SIZE cards at a time. The user
+     * is asked before each further page, so a query matching much of a
+     * large deck is not printed all at once.
+     *
+     * @param query Words to look for, as typed after "search". A word may be the start of a longer word.
+     */
+    public void searchCommand(String query) {
+        if (!requireCardSet("search")) return;
+
+        SearchResults results = cs.search(query);
+        if (results.size() == 0) {
+            printTextNL("No cards match \"" + query + "\".");
+            return;
+        }
+
+        printTextNL(results.size() + " cards match \"" + query + "\":");
+        for (int from = 0; ; from += SEARCH_PAGE_SIZE) {
+            for (Card c : results.page(from, SEARCH_PAGE_SIZE)) {
+                printTextNL("\"" + c.getTerm() + "\": \"" + c.getDefinition() + "\"");
+            }
+            if (from + SEARCH_PAGE_SIZE >= results.size()) return;
+
+            printTextNL("Show the next results? (yes/no):");
+            String answer = getInput();
+            if (!answer.equalsIgnoreCase("yes") && !answer.equalsIgnoreCase("y")) return;
+        }
+    }
+
     /**
      * Sets all card mistakes in the CardSet to 0.
      */
     public void resetStatsCommand() {
-        for (int i = 0; i < cs.size(); i++) {
-            cs.getCard(i).setMistakes(0);
-        }
+        if (!requireCardSet("reset stats")) return;
+
+        cs.resetMistakes();
         printTextNL("Card statistics has been reset.");
     }
 
     /**
-     * Writes cards from an ArrayList of cards to a file. If
-     * a file/directory does not exist, it will create one.
-     * If a file exists with this name, overwrite the file.
-     * Format:
+     * Prints the session metrics: command latencies, deck lookup and scan
+     * counters, and import and export throughput.
+     */
+    public void statsCommand() {
+        printTextNL(metrics.report());
+    }
+
+    /**
+     * Switches to another deck of the workspace, loading it on first use.
+     * Decks that were not used for a while may be written back to the
+     * workspace and dropped from memory to make room.
      *
-     * TERM:DEFINITION:MISTAKES
-     * German:Deutsche:0
-     * I am:Ich bin:3
-     * ... : ... : ...
+     * @param name Name of the deck, as typed after "use".
+     */
+    public void useCommand(String name) {
+        if (!requireCardSet("use")) return;
+        if (!Workspace.isValidName(name)) {
+            printTextNL("Invalid deck name \"" + name + "\". Use letters, digits, '-', '_' and '.'.");
+            return;
+        }
+
+        try {
+            cs = workspace.use(name);
+            deckName = name;
+            metrics.setCardSet(cs);
+            printTextNL("Using deck \"" + name + "\" (" + cs.size() + " cards).");
+        } catch (IOException e) {
+            printTextNL("ERROR: IOException occurred. Deck \"" + name + "\" could not be used.");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Lists the decks of the workspace, marking the deck in use with a *.
+     * Decks that are not in memory are listed without a card count, so
+     * listing never loads a deck.
+     */
+    public void decksCommand() {
+        if (!requireCardSet("decks")) return;
+
+        printTextNL("Decks in \"" + workspace.getDirectory().getPath() + "\":");
+
+        for (String name : workspace.getNames()) {
+            CardSet deck = workspace.getIfLoaded(name);
+            printTextNL((name.equals(deckName) ? "* " : "  ") + name + ": " +
+                    (deck == null ? "not loaded" : deck.size() + " cards"));
+        }
+    }
+
+    /**
+     * Writes cards from the CardSet to a file through a DeckExporter.
+     * If a file/directory does not exist, it will create one.
+     * If a file exists with this name, overwrite the file.
+     * Paths ending in .deck are written in the binary deck format,
+     * paths ending in .patch get only the cards changed since the last
+     * save, and anything else the TERM:DEFINITION:MISTAKES:... text
+     * format. A text deck or patch path may end in .gz to compress it,
+     * e.g. spanish.txt.gz. Either way the session deck counts as saved afterwards;
+     * a workspace deck is only saved by writing it back to the workspace.
      *
-     * @param path String Path to a .txt file.
+     * @param path String Path to a .txt, .deck or .patch file.
      * @return int Number of cards exported.
      */
     public int exportCardsToFile(String path) {
-        int numCardsExported = 0;
-        File file = new File(path);
-        StringBuilder output = new StringBuilder();
-        output.append("TERM:DEFINITION:MISTAKES\n");
-        for (int i = 0; i < cs.size(); i++) {
-            output.append(cs.getCard(i).getTerm()).append(":").append(cs.getCard(i).getDefinition()).append(":").append(cs.getCard(i).getMistakes()).append("\n");
-            numCardsExported++;
-        }
-
-        try (PrintWriter pw = new PrintWriter(file)) {
-            pw.print(output);
+        DeckTransferEvent event = new DeckTransferEvent();
+        event.begin();
+        long start = System.nanoTime();
+
+        try {
+            File file = new File(path);
+            int numCardsExported = new DeckExporter(deck()).exportFile(file);
+            if (store == null && cs == sessionDeck) cs.markSaved();
+            metrics.recordExport(path, numCardsExported, file.length(), start, event);
             return numCardsExported;
         } catch (FileNotFoundException e) {
-            printTextNL("ERROR: FileNotFoundException when writing to file.\n" +
-                    "Text to write:\n\"" + output + "\"");
+            printTextNL("ERROR: FileNotFoundException when writing to file.");
+            e.printStackTrace();
+            return 0;
+        } catch (IOException e) {
+            printTextNL("ERROR: IOException when writing to file.");
             e.printStackTrace();
             return 0;
         }
@@ -279,51 +598,38 @@ public final class FlashcardIOHandler {
      * Read cards from a formatted file. Adds them line by line
      * to the provided CardSet. Updates any already existing
      * cards if terms are equal but definitions are not. Skips
-     * duplicate entries.
+     * duplicate entries. The file is streamed through a
+     * DeckImporter, which reports its throughput when it finishes.
+     * Binary .deck files, .patch files and gzip compressed files are detected by their header. A directory
+     * or glob imports every matching file, parsed in parallel and
+     * merged in path order.
      *
-     * TERM:DEFINITION
-     * German:Deutsche
-     * I am:Ich bin
-     * ... : ...
+     * TERM:DEFINITION:MISTAKES
+     * German:Deutsche:0
+     * I am:Ich bin:3
+     * ... : ... : ...
      *
-     * @param path String Path to a .txt file.
+     * @param path String Path to a .txt or .deck file, a directory or a glob.
      * @return int Number of cards imported.
      */
     public int importCardsFromFile(String path) {
-        File file = new File(path);
+        DeckImporter importer = new DeckImporter(cs);
+        DeckTransferEvent event = new DeckTransferEvent();
+        event.begin();
+        long start = System.nanoTime();
         int numCardsImported = 0;
 
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            br.readLine();
-
-            String line;
-            String[] lineArray;
-            while((line = br.readLine()) != null) {
-                lineArray = line.split(":");
-
-                // Check to see if a card exists by term and then check if definitions are not equal.
-                // If they are not equal, update the current entry.
-                if (cs.getCardByTerm(lineArray[0]) != null &&
-                        !cs.getCardByTerm(lineArray[0]).getDefinition().equalsIgnoreCase(lineArray[1])) {
-                    cs.removeCard(lineArray[0]);
-
-                    // Check to see if a card exists by term and then check if definitions are equal.
-                    // If they are equal, skip this entry in the file (no duplicates).
-                } else if (cs.getCardByTerm(lineArray[0]) != null &&
-                        cs.getCardByTerm(lineArray[0]).getDefinition().equalsIgnoreCase(lineArray[1])) {
-                    numCardsImported++;
-                    continue;
-
-                    // Check to see if a card exists by definition.
-                    // If one does, skip (no duplicates).
-                    // NOTE: this was guaranteed in the problem desc. to not happen, but just in case.
-                } else if (cs.getCardByDefinition(lineArray[1]) != null) {
-                    continue;
-                }
-
-                cs.addCard(lineArray[0], lineArray[1], Integer.parseInt(lineArray[2]));
-                numCardsImported++;
-            }
+        // Loading into an empty deck, or patching a deck that has no other changes, leaves it saved.
+        boolean wasSaved = !cs.hasUnsavedChanges();
+        boolean wasEmpty = cs.size() == 0;
+
+        try {
+            numCardsImported = importer.importPath(path);
+            if (cs == sessionDeck && wasSaved && (wasEmpty || importer.wasPatch())) cs.markSaved();
+            metrics.recordImport(path, numCardsImported, importer.getBytesRead(), start, event);
+            printTextNL(importer.getThroughput());
+            // A damaged file would otherwise just load fewer cards than expected.
+            if (importer.getRejectedLines() > 0) printTextNL(importer.getRejectedLines() + " malformed lines have been skipped.");
         } catch (FileNotFoundException e) {
             printTextNL("ERROR: FileNotFoundException occurred. Import incomplete/unsuccessful.");
             e.printStackTrace();
@@ -335,6 +641,24 @@ public final class FlashcardIOHandler {
         return numCardsImported;
     }
 
+    /**
+     * Rebuilds the session deck from a journal directory and records every
+     * later change to it, so a crash loses at most the last unsynced batch.
+     * Should be called before anything else changes the deck.
+     *
+     * @param path String Path to the journal directory.
+     */
+    public void openJournal(String path) {
+        try {
+            journal = DeckJournal.open(new File(path), sessionDeck);
+            sessionDeck.markSaved();
+            printTextNL(sessionDeck.size() + " cards have been restored from the journal.");
+        } catch (IOException e) {
+            printTextNL("ERROR: IOException occurred. Journal could not be opened.");
+            e.printStackTrace();
+        }
+    }
+
     /**
      * Displays text to the console and stores the output lines
      * in the log file.
@@ -342,16 +666,16 @@ public final class FlashcardIOHandler {
      * @param s String to print to console.
      */
     public void printText(String s) {
-        System.out.print(s);
-        log.add(s);
+        out.print(s);
+        log.append(s);
     }
 
     /**
      * Prints a new line to the screen and stores the new line in log.
      */
     public void printNewLine() {
-        log.add("\n");
-        System.out.println();
+        log.append("\n");
+        out.println();
     }
 
     /**
@@ -366,10 +690,11 @@ public final class FlashcardIOHandler {
     }
 
     /**
-     * Prints the menu to System.out.
+     * Prints the menu to the output sink.
      */
     public void printMenu() {
-        printText("Input the action (add, remove, import, export, ask, exit, log, hardest card, reset stats):\n");
+        printText("Input the action (add, remove, import, export, ask [weighted], review, exit, log, hardest card [N], reset stats, stats, " +
+                "search QUERY, use DECK, decks, slowest cards N, card stats TERM, flush):\n");
     }
 
     /**
@@ -380,10 +705,179 @@ public final class FlashcardIOHandler {
      */
     public String getInput() {
         String s = scanner.nextLine().trim();
-        log.add(s + "\n");
+        log.append(s + "\n");
         return s;
     }
 
+    /**
+     * Checks whether there is another line of input. Returns false at the
+     * end of a script or when the console input is closed.
+     *
+     * @return boolean True if getInput can read another line.
+     */
+    public boolean hasInput() {
+        return scanner.hasNextLine();
+    }
+
+    /**
+     * Writes any buffered output to its destination. Also run by the
+     * flush command.
+     */
+    public void flush() {
+        out.flush();
+    }
+
+    /**
+     * Packs the session deck into a CompactCardSet, which the deck
+     * commands use from then on. Meant for decks too large to keep as
+     * Card objects: the session deck is emptied afterwards, so only the
+     * packed copy stays on the heap. ask, hardest card, export, card stats
+     * and add work on the packed deck; commands that need the CardSet's
+     * indexes or change log, such as remove, import, review and use, are
+     * refused. Should be called after the -import arguments, and cannot be
+     * combined with a journal, which records the CardSet's changes.
+     */
+    public void useCompactBackend() {
+        if (journal != null) {
+            printTextNL("ERROR: -backend compact cannot be combined with -journal.");
+            return;
+        }
+
+        store = new CompactCardSet(sessionDeck);
+        List<String> terms = new ArrayList<>(sessionDeck.size());
+        for (int i = 0; i < sessionDeck.size(); i++) {
+            terms.add(sessionDeck.getCard(i).getTerm());
+        }
+        sessionDeck.removeAll(terms);
+        sessionDeck.markSaved();
+        printTextNL(store.size() + " cards have been packed.");
+    }
+
+    /**
+     * Maps a binary deck file into memory as a MappedCardSet, which the
+     * deck commands use from then on instead of the session deck. The deck
+     * is never loaded onto the heap, so it may be larger than the heap.
+     * ask, hardest card, card stats and export work on the mapped deck;
+     * mistakes are written to the file as they change, but answer times
+     * are not recorded. Cards cannot be added, and commands that need a
+     * CardSet are refused. Cannot be combined with a journal.
+     *
+     * @param path String Path to a version 3 or later .deck file.
+     */
+    public void mapDeck(String path) {
+        if (journal != null) {
+            printTextNL("ERROR: -map cannot be combined with -journal.");
+            return;
+        }
+
+        try {
+            store = new MappedCardSet(new File(path));
+            printTextNL(store.size() + " cards have been mapped.");
+        } catch (IOException e) {
+            printTextNL("ERROR: IOException occurred. \"" + path + "\" could not be mapped.");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Gets the deck the deck commands work on: the packed or mapped deck
+     * if there is one, otherwise the CardSet in use.
+     *
+     * @return CardStore The deck in use.
+     */
+    private CardStore deck() {
+        return store != null ? store : cs;
+    }
+
+    /**
+     * Checks that a command can run, since some commands need a CardSet.
+     * Prints why it cannot otherwise.
+     *
+     * @param command Name of the command.
+     * @return boolean True if the deck in use is a CardSet.
+     */
+    private boolean requireCardSet(String command) {
+        if (store == null) return true;
+        printTextNL("The " + command + " command is not available for a compact or mapped deck.");
+        return false;
+    }
+
+    /**
+     * Gets the CardSet in use by this handler.
+     *
+     * @return CardSet The handler's current deck.
+     */
+    CardSet getCardSet() {
+        return cs;
+    }
+
+    /**
+     * Gets the directory that holds the workspace decks.
+     *
+     * @return File The workspace directory.
+     */
+    File getWorkspaceDirectory() {
+        return workspace.getDirectory();
+    }
+
+    /**
+     * Stops the session log writer and deletes its spill file. Syncs
+     * and closes the journal if one is open, and a mapped deck.
+     */
+    public void close() {
+        log.close();
+        metrics.close();
+
+        if (store instanceof MappedCardSet) {
+            try {
+                ((MappedCardSet) store).close();
+            } catch (IOException e) {
+                printTextNL("ERROR: IOException occurred. Mapped deck may not be saved.");
+                e.printStackTrace();
+            }
+        }
+
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                printTextNL("ERROR: IOException occurred. Journal may be incomplete.");
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Writes every workspace deck that changed back to its file and
+     * switches back to the session deck, so the final export saves the
+     * deck the session started with.
+     */
+    public void saveWorkspace() {
+        try {
+            int numSaved = workspace.saveAll();
+            if (numSaved > 0) printTextNL(numSaved + " decks have been saved to the workspace.");
+        } catch (IOException e) {
+            printTextNL("ERROR: IOException occurred. Workspace decks may not be saved.");
+            e.printStackTrace();
+        }
+
+        cs = sessionDeck;
+        deckName = SESSION_DECK;
+        metrics.setCardSet(cs);
+    }
+
+    /**
+     * Sets the directory that holds the workspace decks. Should be called
+     * before the first use command; decks loaded from the old directory
+     * are forgotten.
+     *
+     * @param path String Path to the workspace directory.
+     */
+    public void setWorkspacePath(String path) {
+        workspace = new Workspace(new File(path), Workspace.DEFAULT_MAX_CARDS);
+        workspace.pin(SESSION_DECK, sessionDeck);
+    }
+
     /**
      * Default setter for the finalExportPath.
      *
@@ -401,4 +895,36 @@ public final class FlashcardIOHandler {
     public String getFinalExportPath() {
         return finalExportPath;
     }
+
+    /**
+     * Default setter for the metricsPath.
+     *
+     * @param s Path the session metrics are written to on exit.
+     */
+    public void setMetricsPath(String s) {
+        metricsPath = s;
+    }
+
+    /**
+     * Default getter for the metricsPath.
+     *
+     * @return String The metrics path associated with this Handler.
+     */
+    public String getMetricsPath() {
+        return metricsPath;
+    }
+
+    /**
+     * Writes the session metrics to a file as JSON.
+     *
+     * @param path String Path to the metrics file.
+     */
+    public void writeMetricsToFile(String path) {
+        try {
+            metrics.writeJson(new File(path));
+        } catch (IOException e) {
+            printTextNL("ERROR: IOException when writing the metrics file.");
+            e.printStackTrace();
+        }
+    }
 }
@@ -0,0 +1,73 @@
+package flashcards;
+
+/**
+ * Histogram of durations in nanoseconds with one bucket per power of two;
+ * bucket i counts durations from 2^i up to 2^(i + 1) nanoseconds.
+ * Recording is a few arithmetic operations with no allocation, and the
+ * percentiles it reports are accurate to within a factor of two, which
+ * is enough to tell a slow command from a fast one.
+ */
+public final class LatencyHistogram {
+    private final long[] buckets = new long[Long.SIZE];
+    private long count;
+    private long totalNanos;
+    private long maxNanos;
+
+    /**
+     * Records one duration.
+     *
+     * @param nanos Duration in nanoseconds.
+     */
+    public void record(long nanos) {
+        nanos = Math.max(0, nanos);
+        buckets[nanos == 0 ? 0 : Long.SIZE - 1 - Long.numberOfLeadingZeros(nanos)]++;
+        count++;
+        totalNanos += nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+    }
+
+    /**
+     * Gets the number of recorded durations.
+     *
+     * @return long The count.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the mean duration.
+     *
+     * @return double The mean in nanoseconds, 0 if nothing was recorded.
+     */
+    public double getMeanNanos() {
+        return count == 0 ? 0 : (double) totalNanos / count;
+    }
+
+    /**
+     * Gets the longest duration.
+     *
+     * @return long The maximum in nanoseconds.
+     */
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * Estimates a percentile as the upper bound of the bucket it falls in,
+     * capped at the maximum.
+     *
+     * @param p Percentile between 0 and 1, e.g. 0.99.
+     * @return long The estimate in nanoseconds, 0 if nothing was recorded.
+     */
+    public long getPercentileNanos(double p) {
+        long rank = (long) Math.ceil(p * count);
+        long seen = 0;
+
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank && seen > 0) return Math.min(maxNanos, (1L << (i + 1)) - 1);
+        }
+        return 0;
+    }
+}
@@ -1,5 +1,14 @@
 package flashcards;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
 import java.util.Scanner;
 
 /**
@@ -13,50 +22,134 @@ import java.util.Scanner;
  * @since 6-7-2020
  */
 public class Main {
+    private static final int SCRIPT_BUFFER_SIZE = 1 << 16;
 
     /**
      * Main method for the Flashcards program. Runs the main
      * CLI program loop.
      *
-     * @param args -import and -export commands used to automatically import and export CardSets.
+     * @param args -import and -export commands used to automatically import and export CardSets,
+     *             -script to read the commands from a file instead of the console,
+     *             -serve to run the HTTP quiz server on [host:]port instead of the menu,
+     *             -journal to restore the deck from and record changes to a journal directory,
+     *             -metrics to write the session metrics to a JSON file on exit,
+     *             -workspace to keep the decks of the use command in a directory other than the working directory,
+     *             -backend compact to pack the imported deck into a CompactCardSet for very large decks,
+     *             -map to quiz a binary .deck file through a memory mapping instead of the session deck.
      */
     public static void main(String[] args) {
-        // Create scanner and a FlashcardIOHandler object
-        Scanner scanner = new Scanner(System.in);
-        FlashcardIOHandler handler = new FlashcardIOHandler(scanner);
+        // Create scanner and a FlashcardIOHandler object. A script is read and
+        // written through buffers; the console is left unbuffered so prompts show up.
+        String scriptPath = findArgValue(args, "-script");
+        Scanner scanner;
+        FlashcardIOHandler handler;
+
+        if (scriptPath == null) {
+            scanner = new Scanner(System.in);
+            handler = new FlashcardIOHandler(scanner);
+        } else {
+            try {
+                scanner = new Scanner(new BufferedReader(new FileReader(scriptPath), SCRIPT_BUFFER_SIZE));
+            } catch (FileNotFoundException e) {
+                System.out.println("ERROR: Script file \"" + scriptPath + "\" not found.");
+                return;
+            }
+            handler = new FlashcardIOHandler(scanner, new PrintStream(
+                    new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), SCRIPT_BUFFER_SIZE), false));
+        }
 
         // Process run arguments
         processArgs(args, handler);
+        String backend = findArgValue(args, "-backend");
+        String mapPath = findArgValue(args, "-map");
+        String servePort = findArgValue(args, "-serve");
 
-        // Print the first menu and get first input
-        handler.printMenu();
-        String input = handler.getInput();
+        // finish always runs, so a command that throws still leaves the buffered
+        // transcript, the workspace decks and the final export on disk.
+        try {
+            // The deck is packed or mapped once every -import has been loaded.
+            if (backend != null || mapPath != null) {
+                if (servePort != null) {
+                    handler.printTextNL("ERROR: The quiz server needs the in-memory deck; -backend and -map are ignored.");
+                } else if (mapPath != null) {
+                    if (backend != null) handler.printTextNL("ERROR: -map replaces the deck; -backend is ignored.");
+                    handler.mapDeck(mapPath);
+                } else if (!backend.equalsIgnoreCase("compact")) {
+                    handler.printTextNL("ERROR: Unknown backend \"" + backend + "\". Use compact.");
+                } else {
+                    handler.useCompactBackend();
+                }
+                handler.printNewLine();
+            }
 
-        /* This method is the main loop. Pass all the input to the IOHandler. */
-        while(!input.equalsIgnoreCase("exit")) {
-            handler.processInput(input);
+            // In server mode the console only waits for exit while learners use the HTTP endpoints.
+            if (servePort != null) {
+                serve(handler, servePort);
+                return;
+            }
 
-            handler.printNewLine();
+            // Print the first menu and get first input. The end of the input counts as exit.
             handler.printMenu();
+            String input = handler.hasInput() ? handler.getInput() : "exit";
 
-            input = handler.getInput();
+            /* This method is the main loop. Pass all the input to the IOHandler. */
+            while(!input.equalsIgnoreCase("exit")) {
+                handler.processInput(input);
+
+                handler.printNewLine();
+                handler.printMenu();
+
+                input = handler.hasInput() ? handler.getInput() : "exit";
+            }
+        } finally {
+            finish(handler, scanner);
         }
+    }
 
+    /**
+     * Says goodbye, writes changed workspace decks back, runs the final
+     * export of the session deck and writes the metrics if they were
+     * requested and releases the handler's resources.
+     *
+     * @param handler The handler in reference.
+     * @param scanner The scanner the handler reads from.
+     */
+    private static void finish(FlashcardIOHandler handler, Scanner scanner) {
         // Say goodbye!
         handler.printTextNL("Bye bye!");
 
+        // Save the decks of the use command; this also switches back to the session deck.
+        handler.saveWorkspace();
+
         // Check to see if a final export needs to happen!
         if (handler.getFinalExportPath() != null) {
             handler.printTextNL(handler.exportCardsToFile(handler.getFinalExportPath()) + " cards have been saved.");
         }
 
+        // Write the session metrics last so they include the final export.
+        if (handler.getMetricsPath() != null) handler.writeMetricsToFile(handler.getMetricsPath());
+
         // Clean up some memory.
+        handler.flush();
         scanner.close();
+        handler.close();
     }
 
     /**
      * Processed the arguments from start time. We're looking for
-     * -import or -export.
+     * -import, -export, -journal or -metrics. -journal should come first so
+     * imported cards are journaled. -import and -export may name a
+     * text or a binary .deck file; the import format is read from the
+     * file header and the export format from the file extension. A text
+     * -export path ending in .gz, e.g. deck.txt.gz, is gzip compressed,
+     * and compressed files are decompressed on -import.
+     * An -export path ending in .patch saves only the cards changed since
+     * the deck was loaded, and importing the patch after its deck restores
+     * them. -import may also name a directory or a quoted glob such as
+     * "decks/*.txt" to merge many files at once, and may be repeated.
+     * -workspace names the directory the use command keeps its NAME.deck
+     * files in. -import, -export and -journal always work on the deck the
+     * session starts with, called "default" by the use command.
      *
      * @param args Arguments from start time.
      * @param handler The handler in reference.
@@ -77,9 +170,80 @@ public class Main {
                 case "-export":
                     handler.setFinalExportPath(args[i + 1]);
                     break;
+                case "-metrics":
+                    handler.setMetricsPath(args[i + 1]);
+                    break;
+                case "-workspace":
+                    handler.setWorkspacePath(args[i + 1]);
+                    break;
+                case "-journal":
+                    handler.openJournal(args[i + 1]);
+                    handler.printNewLine();
+                    break;
+                case "-script":
+                case "-serve":
+                case "-backend":
+                case "-map":
+                    // Handled in main.
+                    break;
                 default:
                     handler.printTextNL("ERROR: Invalid argument. Program may not run as expected.");
             }
         }
     }
+
+    /**
+     * Runs the HTTP quiz server on the handler's deck until exit is typed.
+     * Without a host the server only listens on the loopback interface;
+     * 0.0.0.0 lets learners on other machines connect. /export saves
+     * decks in the workspace directory.
+     *
+     * @param handler The handler in reference.
+     * @param hostPort [host:]port to listen on, as typed after -serve.
+     */
+    private static void serve(FlashcardIOHandler handler, String hostPort) {
+        // Without TCP_NODELAY small responses wait on delayed ACKs, adding ~40 ms per request.
+        // The JDK server reads this JVM-wide property once, so it is set before the first server exists.
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        QuizServer server = new QuizServer(handler.getCardSet(), handler.getWorkspaceDirectory());
+
+        // The port follows the last colon, so a bracketed IPv6 host such as [::1]:8080 works too.
+        int colon = hostPort.lastIndexOf(':');
+        String host = colon < 0 ? null : hostPort.substring(0, colon).replace("[", "").replace("]", "");
+        String port = hostPort.substring(colon + 1);
+
+        try {
+            InetAddress address = host == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(host);
+            int boundPort = server.start(address, Integer.parseInt(port));
+            handler.printTextNL("Quiz server listening on http://" + (host == null ? "localhost" : hostPort.substring(0, colon)) +
+                    ":" + boundPort + "/. Type exit to stop.");
+        } catch (NumberFormatException e) {
+            handler.printTextNL("ERROR: Invalid port \"" + port + "\".");
+            return;
+        } catch (IOException e) {
+            handler.printTextNL("ERROR: IOException when starting the quiz server.");
+            e.printStackTrace();
+            return;
+        }
+        handler.flush();
+
+        while (handler.hasInput() && !handler.getInput().equalsIgnoreCase("exit")) {
+            handler.printTextNL("Type exit to stop the quiz server.");
+        }
+        server.stop();
+    }
+
+    /**
+     * Finds the value that follows a keyword in the start time arguments.
+     *
+     * @param args Arguments from start time.
+     * @param keyword Keyword to look for, e.g. -script.
+     * @return String The value after the keyword <b>or</b> null if it is not present.
+     */
+    private static String findArgValue(String[] args, String keyword) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equalsIgnoreCase(keyword)) return args[i + 1];
+        }
+        return null;
+    }
 }
@@ -0,0 +1,354 @@
+package flashcards;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+/**
+ * Deck that lives in a memory-mapped binary deck file instead of the heap.
+ * The file is mapped read-write in 1 GB chunks, so the operating system
+ * pages cards in as they are touched and a deck far larger than the heap
+ * can be quizzed. Lookups go through the hash tables stored in the file
+ * and mistakes are written back to their record in place, so the heap
+ * footprint stays the same whatever the size of the deck.
+ *
+ * Only version 3 and later binary decks can be mapped; export an older
+ * deck to a .deck file once to convert it. Cards cannot be added or removed.
+ * getCard builds a new Card on every call. The Card is a view whose
+ * mistakes are written back to the file, since they are a fixed width
+ * field; the other fields are variable width, so changes to a view's
+ * schedule or answer times stay on the view and are not saved.
+ *
+ * Every read keeps its own position in the file, so any number of
+ * threads can read the deck at once. A read racing a mistakes update of
+ * the same card sees either the old or the new count.
+ */
+public final class MappedCardSet implements CardStore, Closeable {
+    private static final int CHUNK_SIZE = 1 << 30;
+    private static final int CHUNK_OVERLAP = Long.BYTES; // Lets fixed width values that cross a chunk end be read from one chunk.
+    private static final int MIN_VERSION = 3; // First version with hash tables and fixed width mistakes.
+
+    private final File file;
+    private final FileChannel channel;
+    private final MappedByteBuffer[] chunks;
+    private final int version;
+    private final int size;
+    private final int tableCapacity;
+    private final long termTable;
+    private final long definitionTable;
+    private final Random rand;
+    private final CardWriteBack writeBack;
+
+    /**
+     * Position of a read within the mapped file. Each read makes its own,
+     * so reads do not share state.
+     */
+    private static final class Cursor {
+        private long position;
+
+        Cursor(long position) {
+            this.position = position;
+        }
+    }
+
+    /**
+     * Maps a binary deck file. Only the header is read; cards are paged in
+     * as they are used.
+     *
+     * @param file Version 3 or later binary deck file. Mistake updates are written to it.
+     * @throws IOException If the file cannot be mapped or is not a version 3 or later binary deck.
+     */
+    public MappedCardSet(File file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        try {
+            long length = channel.size();
+            this.chunks = new MappedByteBuffer[(int) Math.max(1, (length + CHUNK_SIZE - 1) / CHUNK_SIZE)];
+            for (int i = 0; i < chunks.length; i++) {
+                long start = (long) i * CHUNK_SIZE;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.min(length - start, CHUNK_SIZE + CHUNK_OVERLAP));
+            }
+
+            this.version = BinaryDeckFormat.readVersion(chunks[0], file);
+            if (version < MIN_VERSION) {
+                throw new IOException("Only version " + MIN_VERSION + " and later binary decks can be mapped, " +
+                        "export the deck to a " + BinaryDeckFormat.EXTENSION + " file to convert it: " + file);
+            }
+
+            this.size = chunks[0].getInt(BinaryDeckFormat.HEADER_SIZE - Integer.BYTES);
+            this.tableCapacity = BinaryDeckFormat.tableCapacity(size);
+            this.termTable = BinaryDeckFormat.HEADER_SIZE + (long) size * Long.BYTES;
+            this.definitionTable = termTable + (long) tableCapacity * Integer.BYTES;
+            if (size < 0 || definitionTable + (long) tableCapacity * Integer.BYTES > length) {
+                throw new IOException("Corrupt binary deck: " + file);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        this.rand = new Random();
+        this.writeBack = new MistakesWriter();
+    }
+
+    /**
+     * Returns a card by index. The card is a view: setting its mistakes
+     * writes them to the mapped file.
+     *
+     * @param index Index of a card within the deck.
+     * @return Card A new view of the record at the index.
+     */
+    @Override
+    public Card getCard(int index) {
+        Cursor at = new Cursor(recordOffset(index));
+        int mistakes = readInt(at);
+        String term = readString(at);
+        String definition = readString(at);
+        int repetitions = readVarint(at);
+        int interval = readVarint(at);
+        double ease = Double.longBitsToDouble(readLong(at));
+        long due = readLong(at);
+        Card c = new Card(term, definition, mistakes, repetitions, interval, ease, due);
+
+        int answers = version >= 4 ? readVarint(at) : 0;
+        if (answers > 0) c.setAnswerStats(answers, Double.longBitsToDouble(readLong(at)), Double.longBitsToDouble(readLong(at)));
+
+        // Set last, so building the view does not write it back.
+        c.sequence = index;
+        c.writeBack = writeBack;
+        return c;
+    }
+
+    /**
+     * Writes a view's mistakes back to its record. The schedule and the
+     * answer times do not fit in place, see the class comment.
+     */
+    private final class MistakesWriter implements CardWriteBack {
+        @Override
+        public void mistakesChanged(Card c) {
+            setMistakes((int) c.sequence, c.getMistakes());
+        }
+
+        @Override
+        public void scheduleChanged(Card c) {
+            // Variable width in the file; stays on the view.
+        }
+
+        @Override
+        public void answerStatsChanged(Card c) {
+            // Variable width in the file; stays on the view.
+        }
+    }
+
+    /**
+     * Returns a card by term (IGNORES CASE).
+     *
+     * @param term Term of a card within the deck.
+     * @return Card A view of the card with the term <b>or</b> null if no card was found.
+     */
+    @Override
+    public Card getCardByTerm(String term) {
+        int index = indexOfTerm(term);
+        return index < 0 ? null : getCard(index);
+    }
+
+    /**
+     * Returns a card by definition (IGNORES CASE).
+     *
+     * @param definition Definition of a card within the deck.
+     * @return Card A view of the card with the definition <b>or</b> null if no card was found.
+     */
+    @Override
+    public Card getCardByDefinition(String definition) {
+        int index = indexOfDefinition(definition);
+        return index < 0 ? null : getCard(index);
+    }
+
+    /**
+     * Finds a card by term without building a Card.
+     *
+     * @param term Term of a card within the deck (IGNORES CASE).
+     * @return int Index of the card <b>or</b> -1 if no card was found.
+     */
+    public int indexOfTerm(String term) {
+        return find(termTable, term, true);
+    }
+
+    /**
+     * Finds a card by definition without building a Card.
+     *
+     * @param definition Definition of a card within the deck (IGNORES CASE).
+     * @return int Index of the card <b>or</b> -1 if no card was found.
+     */
+    public int indexOfDefinition(String definition) {
+        return find(definitionTable, definition, false);
+    }
+
+    /**
+     * Gets the mistakes of a card.
+     *
+     * @param index Index of a card within the deck.
+     * @return int The card's number of mistakes.
+     */
+    public int getMistakes(int index) {
+        return readInt(new Cursor(recordOffset(index)));
+    }
+
+    /**
+     * Sets the mistakes of a card, writing them to the mapped file.
+     *
+     * @param index Index of a card within the deck.
+     * @param mistakes New number of mistakes.
+     */
+    public void setMistakes(int index, int mistakes) {
+        long offset = recordOffset(index);
+        chunks[(int) (offset / CHUNK_SIZE)].putInt((int) (offset % CHUNK_SIZE), mistakes);
+    }
+
+    /**
+     * Returns an endless iterator over the indexes of this deck in
+     * shuffled order. Each card comes up once per cycle through the deck.
+     *
+     * @return CardShuffler Iterator over shuffled card indexes.
+     */
+    @Override
+    public CardShuffler shuffledIndexes() {
+        return new CardShuffler(size, rand);
+    }
+
+    /**
+     * Returns the number of cards in this MappedCardSet.
+     *
+     * @return int The number of cards.
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Writes the mapped deck to another file. The mapped file always holds
+     * the current deck, so this is a file copy that never loads the cards.
+     *
+     * @param destination File to write, replaced if it exists.
+     * @return int Number of cards written.
+     * @throws IOException If the file cannot be written.
+     */
+    public int copyTo(File destination) throws IOException {
+        flush();
+        if (!destination.getCanonicalFile().equals(file.getCanonicalFile())) {
+            Files.copy(file.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return size;
+    }
+
+    /**
+     * Forces mistake updates out to the file.
+     */
+    public void flush() {
+        for (MappedByteBuffer chunk : chunks) {
+            chunk.force();
+        }
+    }
+
+    /**
+     * Flushes mistake updates and closes the file. The mapping itself is
+     * released when it is garbage collected.
+     *
+     * @throws IOException If the file cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+
+    /**
+     * Looks a term or definition up in one of the hash tables of the file.
+     *
+     * @param table File position of the term or definition table.
+     * @param key Term or definition to find.
+     * @param byTerm True to compare against terms, false for definitions.
+     * @return int Index of the first card with the key <b>or</b> -1.
+     */
+    private int find(long table, String key, boolean byTerm) {
+        int mask = tableCapacity - 1;
+        for (int slot = CardSet.foldHash(key) & mask; ; slot = (slot + 1) & mask) {
+            int entry = readInt(new Cursor(table + (long) slot * Integer.BYTES));
+            if (entry == 0) return -1;
+
+            Cursor at = new Cursor(recordOffset(entry - 1) + Integer.BYTES);
+            String term = readString(at);
+            if ((byTerm ? term : readString(at)).equalsIgnoreCase(key)) return entry - 1;
+        }
+    }
+
+    /**
+     * Reads the file position of a card record from the offset table.
+     *
+     * @param index Index of a card within the deck.
+     * @return long Position of the card's record.
+     */
+    private long recordOffset(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        return readLong(new Cursor(BinaryDeckFormat.HEADER_SIZE + (long) index * Long.BYTES));
+    }
+
+    /**
+     * Reads a big-endian int at the cursor.
+     */
+    private int readInt(Cursor at) {
+        int value = chunks[(int) (at.position / CHUNK_SIZE)].getInt((int) (at.position % CHUNK_SIZE));
+        at.position += Integer.BYTES;
+        return value;
+    }
+
+    /**
+     * Reads a big-endian long at the cursor.
+     */
+    private long readLong(Cursor at) {
+        long value = chunks[(int) (at.position / CHUNK_SIZE)].getLong((int) (at.position % CHUNK_SIZE));
+        at.position += Long.BYTES;
+        return value;
+    }
+
+    /**
+     * Reads an unsigned LEB128 varint at the cursor.
+     */
+    private int readVarint(Cursor at) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = chunks[(int) (at.position / CHUNK_SIZE)].get((int) (at.position % CHUNK_SIZE));
+            at.position++;
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        throw new IllegalStateException("Corrupt binary deck: " + file);
+    }
+
+    /**
+     * Reads a length-prefixed UTF-8 string at the cursor, copying it out
+     * of as many chunks as it spans.
+     */
+    private String readString(Cursor at) {
+        byte[] bytes = new byte[readVarint(at)];
+
+        for (int copied = 0; copied < bytes.length; ) {
+            MappedByteBuffer chunk = chunks[(int) (at.position / CHUNK_SIZE)];
+            int offset = (int) (at.position % CHUNK_SIZE);
+            int n = Math.min(bytes.length - copied, CHUNK_SIZE - offset);
+            chunk.get(offset, bytes, copied, n);
+            copied += n;
+            at.position += n;
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,222 @@
+package flashcards;
+
+import jdk.jfr.FlightRecorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Session metrics of a FlashcardIOHandler: a latency histogram per menu
+ * command, the lookup and scan counters of the deck, and the throughput
+ * of every import and export. Each measurement is also emitted as a JFR
+ * event (category Flashcards), so a recording started with
+ * -XX:StartFlightRecording shows them next to the JVM's own events.
+ *
+ * The stats command prints a summary and -metrics writes the same data
+ * as JSON when the program exits.
+ */
+public final class Metrics {
+    private volatile CardSet cs; // Read by the JFR periodic hook on another thread.
+    private final Map<String, LatencyHistogram> commands;
+    private final Transfers imports;
+    private final Transfers exports;
+    private final Runnable countersHook;
+
+    /**
+     * Totals of every import or every export.
+     */
+    private static final class Transfers {
+        private long count;
+        private long cards;
+        private long bytes;
+        private long nanos;
+
+        private void record(long cards, long bytes, long nanos) {
+            count++;
+            this.cards += cards;
+            this.bytes += bytes;
+            this.nanos += nanos;
+        }
+
+        private double perSecond(long amount) {
+            return amount / (Math.max(nanos, 1) / 1_000_000_000.0);
+        }
+    }
+
+    /**
+     * Metrics constructor. Starts emitting the deck's counters as a
+     * periodic JFR event.
+     *
+     * @param cs Deck whose lookup and scan counters are reported.
+     */
+    public Metrics(CardSet cs) {
+        this.cs = cs;
+        this.commands = new LinkedHashMap<>();
+        this.imports = new Transfers();
+        this.exports = new Transfers();
+        this.countersHook = this::emitCounters;
+        FlightRecorder.addPeriodicEvent(CardSetCountersEvent.class, countersHook);
+    }
+
+    /**
+     * Switches the deck whose counters are reported, e.g. after the use
+     * command.
+     *
+     * @param cs Deck whose lookup and scan counters are reported from now on.
+     */
+    void setCardSet(CardSet cs) {
+        this.cs = cs;
+    }
+
+    /**
+     * Records how long a menu command took and commits its JFR event.
+     *
+     * @param command Command name, e.g. "ask".
+     * @param startNanos System.nanoTime() when the command started.
+     * @param event Event begun when the command started.
+     */
+    void recordCommand(String command, long startNanos, CommandEvent event) {
+        commands.computeIfAbsent(command, k -> new LatencyHistogram()).record(System.nanoTime() - startNanos);
+
+        event.command = command;
+        event.commit();
+    }
+
+    /**
+     * Records a finished import and commits its JFR event.
+     *
+     * @param path Path that was imported.
+     * @param cards Number of cards imported.
+     * @param bytes Number of bytes read.
+     * @param startNanos System.nanoTime() when the import started.
+     * @param event Event begun when the import started.
+     */
+    void recordImport(String path, long cards, long bytes, long startNanos, DeckTransferEvent event) {
+        recordTransfer(imports, "import", path, cards, bytes, startNanos, event);
+    }
+
+    /**
+     * Records a finished export and commits its JFR event.
+     *
+     * @param path Path that was written.
+     * @param cards Number of cards exported.
+     * @param bytes Number of bytes written.
+     * @param startNanos System.nanoTime() when the export started.
+     * @param event Event begun when the export started.
+     */
+    void recordExport(String path, long cards, long bytes, long startNanos, DeckTransferEvent event) {
+        recordTransfer(exports, "export", path, cards, bytes, startNanos, event);
+    }
+
+    /**
+     * Adds an import or export to its totals and commits its JFR event.
+     */
+    private static void recordTransfer(Transfers transfers, String operation, String path, long cards, long bytes,
+                                       long startNanos, DeckTransferEvent event) {
+        transfers.record(cards, bytes, System.nanoTime() - startNanos);
+
+        event.operation = operation;
+        event.path = path;
+        event.cards = cards;
+        event.bytes = bytes;
+        event.commit();
+    }
+
+    /**
+     * Emits the deck's counters. Called by JFR once per period.
+     */
+    private void emitCounters() {
+        CardSet cs = this.cs;
+        Map<String, Long> counters = cs.getCounters();
+        CardSetCountersEvent event = new CardSetCountersEvent();
+        event.cards = cs.size();
+        event.termLookups = counters.get("termLookups");
+        event.definitionLookups = counters.get("definitionLookups");
+        event.approximateLookups = counters.get("approximateLookups");
+        event.scans = counters.get("scans");
+        event.commit();
+    }
+
+    /**
+     * Describes the metrics of the session so far for the stats command.
+     *
+     * @return String One line per command, counter and transfer direction.
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder("Command latency (count, mean, p50, p99, max in ms):\n");
+        for (Map.Entry<String, LatencyHistogram> entry : commands.entrySet()) {
+            LatencyHistogram h = entry.getValue();
+            report.append(String.format(Locale.ROOT, "  %-14s %6d %10.3f %10.3f %10.3f %10.3f%n", entry.getKey(), h.getCount(),
+                    h.getMeanNanos() / 1e6, h.getPercentileNanos(0.50) / 1e6, h.getPercentileNanos(0.99) / 1e6,
+                    h.getMaxNanos() / 1e6));
+        }
+
+        report.append("Deck counters:\n");
+        report.append(String.format(Locale.ROOT, "  %-19s %d%n", "cards", cs.size()));
+        for (Map.Entry<String, Long> entry : cs.getCounters().entrySet()) {
+            report.append(String.format(Locale.ROOT, "  %-19s %d%n", entry.getKey(), entry.getValue()));
+        }
+
+        appendTransfers(report, "Imports", imports);
+        appendTransfers(report, "Exports", exports);
+        return report.toString().trim();
+    }
+
+    /**
+     * Appends the totals and rates of every import or every export.
+     */
+    private static void appendTransfers(StringBuilder report, String name, Transfers t) {
+        report.append(String.format(Locale.ROOT, "%s: %d, %d cards, %d bytes in %d ms: %.0f cards/sec, %.0f bytes/sec%n",
+                name, t.count, t.cards, t.bytes, t.nanos / 1_000_000, t.perSecond(t.cards), t.perSecond(t.bytes)));
+    }
+
+    /**
+     * Writes the metrics of the session as a JSON object.
+     *
+     * @param file File to write, replaced if it exists.
+     * @throws IOException If the file cannot be written.
+     */
+    public void writeJson(File file) throws IOException {
+        try (PrintWriter pw = new PrintWriter(file)) {
+            pw.println("{");
+            pw.println("  \"commands\": {");
+            int i = 0;
+            for (Map.Entry<String, LatencyHistogram> entry : commands.entrySet()) {
+                LatencyHistogram h = entry.getValue();
+                pw.printf(Locale.ROOT, "    \"%s\": {\"count\":%d,\"meanNanos\":%.0f,\"p50Nanos\":%d,\"p99Nanos\":%d,\"maxNanos\":%d}%s%n",
+                        entry.getKey(), h.getCount(), h.getMeanNanos(), h.getPercentileNanos(0.50),
+                        h.getPercentileNanos(0.99), h.getMaxNanos(), ++i < commands.size() ? "," : "");
+            }
+            pw.println("  },");
+
+            pw.print("  \"counters\": {\"cards\":" + cs.size());
+            for (Map.Entry<String, Long> entry : cs.getCounters().entrySet()) {
+                pw.print(",\"" + entry.getKey() + "\":" + entry.getValue());
+            }
+            pw.println("},");
+
+            pw.println("  \"imports\": " + toJson(imports) + ",");
+            pw.println("  \"exports\": " + toJson(exports));
+            pw.println("}");
+        }
+    }
+
+    /**
+     * Formats the totals of every import or every export as a JSON object.
+     */
+    private static String toJson(Transfers t) {
+        return String.format(Locale.ROOT, "{\"count\":%d,\"cards\":%d,\"bytes\":%d,\"nanos\":%d,\"cardsPerSec\":%.0f,\"bytesPerSec\":%.0f}",
+                t.count, t.cards, t.bytes, t.nanos, t.perSecond(t.cards), t.perSecond(t.bytes));
+    }
+
+    /**
+     * Stops emitting the deck's counters to JFR.
+     */
+    public void close() {
+        FlightRecorder.removePeriodicEvent(countersHook);
+    }
+}
@@ -0,0 +1,17 @@
+package flashcards;
+
+/**
+ * A CardStore that cards can be added to. CardSet and CompactCardSet
+ * grow; a MappedCardSet or a CardSetSnapshot has a fixed set of cards.
+ */
+public interface MutableCardStore extends CardStore {
+
+    /**
+     * Adds a card to the deck.
+     *
+     * @param term String input representing the term of the card to be added.
+     * @param definition String input representing the definition of the card to be added.
+     * @param mistakes An integer count of the number of mistakes for this card.
+     */
+    void addCard(String term, String definition, int mistakes);
+}
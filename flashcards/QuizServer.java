@@ -0,0 +1,457 @@
+package flashcards;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Embedded HTTP quiz server. Many learners share one CardSet, each with
+ * their own quiz session. Every request runs on its own virtual thread
+ * when the JVM supports them and on a cached thread pool otherwise.
+ * The server listens on the loopback interface unless it is started
+ * on another address.
+ *
+ * Endpoints (parameters in the query string or a form encoded body):
+ *
+ * POST /add?term=T&definition=D    Adds a card.
+ * POST /remove?term=T              Removes a card.
+ * GET  /ask?user=U                 Deals the next card of U's shuffled deck.
+ * POST /answer?user=U&answer=A     Checks U's answer to the last card dealt.
+ * GET  /hardest[?n=N]              The hardest card(s), or the N hardest.
+ * POST /export?path=P              Saves the deck to P in the export directory.
+ *
+ * Endpoints that change the deck or write files only accept POST, and
+ * requests a web page on another origin sends are refused, so a page
+ * the learner visits cannot drive the server through their browser.
+ * Export paths must be relative and stay inside the export directory.
+ *
+ * The CardSet is not thread-safe, so lookups take a shared read lock and
+ * anything that changes the deck or a card takes the write lock.
+ * Exports read a CardSetSnapshot instead, so they hold no lock while
+ * the file is written. A learner's session is dropped once it has been
+ * idle for SESSION_IDLE_MS, so the server does not keep every learner
+ * it has ever seen.
+ */
+public final class QuizServer {
+    private static final int BACKLOG = 4096;
+    private static final long SESSION_IDLE_MS = TimeUnit.MINUTES.toMillis(30);
+    private static final long SESSION_SWEEP_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private final CardSet cs;
+    private final Path exportDirectory;
+    private final ReentrantReadWriteLock lock;
+    private final ConcurrentHashMap<String, QuizSession> sessions;
+    private HttpServer server;
+    private ExecutorService executor;
+    private ScheduledExecutorService sweeper;
+
+    /**
+     * Quiz state of one learner: their own shuffled pass through the
+     * deck and the card they were asked last.
+     */
+    private static final class QuizSession {
+        private CardShuffler shuffler;
+        private int shuffledSize;
+        private Card current;
+        private volatile long lastUsed = System.currentTimeMillis();
+    }
+
+    /**
+     * QuizServer constructor. Exports are saved to the working directory.
+     *
+     * @param cs CardSet shared by every learner. Nothing else may change it while the server runs.
+     */
+    public QuizServer(CardSet cs) {
+        this(cs, new File("."));
+    }
+
+    /**
+     * QuizServer constructor.
+     *
+     * @param cs CardSet shared by every learner. Nothing else may change it while the server runs.
+     * @param exportDirectory Directory the /export endpoint saves decks in.
+     */
+    public QuizServer(CardSet cs, File exportDirectory) {
+        this.cs = cs;
+        this.exportDirectory = exportDirectory.toPath().toAbsolutePath().normalize();
+        this.lock = new ReentrantReadWriteLock();
+        this.sessions = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Starts listening on the given port of the loopback interface.
+     *
+     * @param port Port to listen on, or 0 for any free port.
+     * @return int The port the server is listening on.
+     * @throws IOException If the server cannot bind the port.
+     */
+    public int start(int port) throws IOException {
+        return start(InetAddress.getLoopbackAddress(), port);
+    }
+
+    /**
+     * Starts listening on the given address and port. Small responses are
+     * only sent without delay if the sun.net.httpserver.nodelay system
+     * property was set to true before the first server was created.
+     *
+     * @param address Address to listen on, e.g. 0.0.0.0 to accept learners from other machines.
+     * @param port Port to listen on, or 0 for any free port.
+     * @return int The port the server is listening on.
+     * @throws IOException If the server cannot bind the address.
+     */
+    public int start(InetAddress address, int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(address, port), BACKLOG);
+        executor = newRequestExecutor();
+
+        server.createContext("/add", exchange -> handle(exchange, "POST", this::add));
+        server.createContext("/remove", exchange -> handle(exchange, "POST", this::remove));
+        server.createContext("/ask", exchange -> handle(exchange, "GET", this::ask));
+        server.createContext("/answer", exchange -> handle(exchange, "POST", this::answer));
+        server.createContext("/hardest", exchange -> handle(exchange, "GET", this::hardest));
+        server.createContext("/export", exchange -> handle(exchange, "POST", this::export));
+        server.setExecutor(executor);
+        server.start();
+
+        sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "flashcards-session-sweep");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(this::dropIdleSessions, SESSION_SWEEP_MS, SESSION_SWEEP_MS, TimeUnit.MILLISECONDS);
+
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops the server, waiting up to a second for requests in flight.
+     */
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+        sweeper.shutdown();
+    }
+
+    /**
+     * Drops the sessions of learners who have not asked or answered for
+     * SESSION_IDLE_MS. A learner who comes back starts a new shuffled pass.
+     */
+    private void dropIdleSessions() {
+        long cutoff = System.currentTimeMillis() - SESSION_IDLE_MS;
+        sessions.values().removeIf(session -> session.lastUsed < cutoff);
+    }
+
+    /**
+     * Creates a virtual-thread-per-task executor when the running JVM has
+     * one (Java 21+). Older JVMs fall back to a cached thread pool.
+     *
+     * @return ExecutorService Executor for request handling.
+     */
+    private static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * A request handler. Takes the request parameters and returns the text response.
+     */
+    private interface Endpoint {
+        String respond(Map<String, String> params);
+    }
+
+    /**
+     * Parses the parameters of a request, runs the endpoint and sends its
+     * response as UTF-8 text. A missing parameter is answered with 400,
+     * another method than the endpoint's with 405 and a request from a
+     * page on another origin with 403.
+     */
+    private void handle(HttpExchange exchange, String method, Endpoint endpoint) throws IOException {
+        int status = 200;
+        String response;
+
+        try (InputStream body = exchange.getRequestBody()) {
+            if (!exchange.getRequestMethod().equalsIgnoreCase(method)) {
+                status = 405;
+                response = "Use " + method + ".";
+                exchange.getResponseHeaders().set("Allow", method);
+            } else if (!isSameOrigin(exchange)) {
+                status = 403;
+                response = "Cross-origin requests are not allowed.";
+            } else {
+                Map<String, String> params = parseParams(exchange.getRequestURI().getRawQuery());
+                params.putAll(parseParams(new String(body.readAllBytes(), StandardCharsets.UTF_8)));
+                response = endpoint.respond(params);
+            }
+        } catch (IllegalArgumentException e) {
+            status = 400;
+            response = e.getMessage();
+        }
+
+        byte[] bytes = (response + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+    /**
+     * Checks that a request did not come from a page on another origin.
+     * Browsers send an Origin header with cross-origin requests; other
+     * clients usually send none.
+     */
+    private static boolean isSameOrigin(HttpExchange exchange) {
+        String origin = exchange.getRequestHeaders().getFirst("Origin");
+        String host = exchange.getRequestHeaders().getFirst("Host");
+        return origin == null || (host != null && origin.equalsIgnoreCase("http://" + host));
+    }
+
+    /**
+     * Adds a card unless its term or definition is already in the deck.
+     */
+    private String add(Map<String, String> params) {
+        String term = require(params, "term");
+        String definition = require(params, "definition");
+
+        lock.writeLock().lock();
+        try {
+            if (cs.getCardByTerm(term) != null) return "The card \"" + term + "\" already exists.";
+            if (cs.getCardByDefinition(definition) != null) return "The definition \"" + definition + "\" already exists.";
+
+            cs.addCard(term, definition, 0);
+            return "The pair (\"" + term + "\":\"" + definition + "\") has been added.";
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a card by term.
+     */
+    private String remove(Map<String, String> params) {
+        String term = require(params, "term");
+
+        lock.writeLock().lock();
+        try {
+            if (cs.removeAll(List.of(term)) == 0) return "Can't remove \"" + term + "\": there is no such card.";
+            return "The card has been removed.";
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Deals the learner the next card of their own shuffled pass through the deck.
+     */
+    private String ask(Map<String, String> params) {
+        QuizSession session = sessions.computeIfAbsent(require(params, "user"), user -> new QuizSession());
+        session.lastUsed = System.currentTimeMillis();
+
+        lock.readLock().lock();
+        try {
+            synchronized (session) {
+                if (cs.size() == 0) return "There are no cards to ask.";
+
+                // Start a new shuffled pass if the deck changed size since the last one.
+                if (session.shuffler == null || session.shuffledSize != cs.size()) {
+                    session.shuffler = cs.shuffledIndexes();
+                    session.shuffledSize = cs.size();
+                }
+
+                session.current = cs.getCard(session.shuffler.nextInt());
+                return "Print the definition of \"" + session.current.getTerm() + "\":";
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Checks the learner's answer to the card they were dealt last and
+     * counts a mistake on the card if it is wrong. The answer is checked
+     * under the read lock; the write lock is only taken to count a mistake.
+     */
+    private String answer(Map<String, String> params) {
+        QuizSession session = sessions.get(require(params, "user"));
+        String input = require(params, "answer");
+        Card c;
+
+        if (session == null) return "Ask for a card first.";
+        session.lastUsed = System.currentTimeMillis();
+        synchronized (session) {
+            c = session.current;
+            session.current = null;
+        }
+        if (c == null) return "Ask for a card first.";
+
+        Card other;
+        lock.readLock().lock();
+        try {
+            if (input.equalsIgnoreCase(c.getDefinition())) return "Correct answer";
+            other = cs.getCardByDefinition(input);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        lock.writeLock().lock();
+        try {
+            // The card may have been removed since it was asked; only count mistakes on cards still in the deck.
+            if (cs.getCardByTerm(c.getTerm()) == c) c.setMistakes(c.getMistakes() + 1);
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        if (other != null) {
+            return "Wrong answer. The correct one is \"" + c.getDefinition() + "\", " +
+                    "you've just written the definition of \"" + other.getTerm() + "\".";
+        }
+        return "Wrong answer. The correct one is \"" + c.getDefinition() + "\".";
+    }
+
+    /**
+     * Lists the cards tied for the most mistakes, or the n hardest cards.
+     */
+    private String hardest(Map<String, String> params) {
+        String n = params.get("n");
+
+        lock.readLock().lock();
+        try {
+            List<Card> hardestCards = n == null ? cs.getHardestCards() : cs.getHardestCards(parseCount(n));
+            if (hardestCards.isEmpty()) return "There are no cards with errors.";
+
+            StringBuilder response = new StringBuilder();
+            for (Card c : hardestCards) {
+                response.append("\"").append(c.getTerm()).append("\": ").append(c.getMistakes()).append(" errors\n");
+            }
+            return response.toString().trim();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Saves the deck to a file in the export directory. The deck is
+     * written from a snapshot, so learners keep answering while a large
+     * deck is saved. A patch needs the live change log and is written
+     * under the read lock.
+     */
+    private String export(Map<String, String> params) {
+        File file = resolveExportPath(require(params, "path"));
+
+        if (DeckPatch.hasPatchExtension(file.getPath())) {
+            lock.readLock().lock();
+            try {
+                return new DeckExporter(cs).exportFile(file) + " cards have been saved.";
+            } catch (IOException e) {
+                return "ERROR: " + e.getMessage();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        // Taking a snapshot registers it with the CardSet, so it needs the write lock, but only for O(1).
+        CardSetSnapshot snapshot;
+        lock.writeLock().lock();
+        try {
+            snapshot = cs.snapshot();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        try (snapshot) {
+            return new DeckExporter(snapshot).exportFile(file) + " cards have been saved.";
+        } catch (IOException e) {
+            return "ERROR: " + e.getMessage();
+        }
+    }
+
+    /**
+     * Resolves a client supplied export path inside the export directory.
+     *
+     * @throws IllegalArgumentException If the path is absolute or leaves the export directory.
+     */
+    private File resolveExportPath(String path) {
+        String error = "The export path must be relative to the export directory and may not contain \"..\".";
+        Path relative;
+        try {
+            relative = Path.of(path);
+        } catch (InvalidPathException e) {
+            throw new IllegalArgumentException("Invalid export path \"" + path + "\".");
+        }
+
+        if (path.isEmpty() || relative.isAbsolute() || relative.getRoot() != null) throw new IllegalArgumentException(error);
+        for (Path segment : relative) {
+            if (segment.toString().equals("..")) throw new IllegalArgumentException(error);
+        }
+
+        Path resolved = exportDirectory.resolve(relative).normalize();
+        if (!resolved.startsWith(exportDirectory) || resolved.equals(exportDirectory)) throw new IllegalArgumentException(error);
+        return resolved.toFile();
+    }
+
+    /**
+     * Gets a required request parameter.
+     *
+     * @throws IllegalArgumentException If the parameter is missing.
+     */
+    private static String require(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if (value == null) throw new IllegalArgumentException("Missing parameter \"" + name + "\".");
+        return value.trim();
+    }
+
+    /**
+     * Parses a positive count parameter.
+     *
+     * @throws IllegalArgumentException If the value is not a positive integer.
+     */
+    private static int parseCount(String value) {
+        try {
+            int n = Integer.parseInt(value.trim());
+            if (n > 0) return n;
+        } catch (NumberFormatException e) {
+            // Reported below.
+        }
+        throw new IllegalArgumentException("Invalid number of cards: \"" + value + "\".");
+    }
+
+    /**
+     * Parses an application/x-www-form-urlencoded string such as a query string.
+     *
+     * @param encoded Encoded parameters, may be null or empty.
+     * @return Map The decoded parameters.
+     */
+    private static Map<String, String> parseParams(String encoded) {
+        Map<String, String> params = new HashMap<>();
+        if (encoded == null || encoded.isEmpty()) return params;
+
+        for (String pair : encoded.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            params.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+}
@@ -0,0 +1,173 @@
+package flashcards;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+/**
+ * Spaced repetition scheduler using the SM-2 algorithm. Cards are kept in
+ * an indexed binary min-heap ordered by due time, so the next due card is
+ * found in O(1) and a card is rescheduled after an answer in O(log n)
+ * without rescanning the deck. The schedule itself is stored on the
+ * cards, so it is saved and loaded with the deck. Each CardSet keeps one
+ * scheduler (see CardSet.getReviewScheduler) and updates it as cards are
+ * added, removed and rescheduled.
+ */
+public final class ReviewScheduler {
+    public static final int QUALITY_CORRECT = 4;
+    public static final int QUALITY_WRONG = 1;
+
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    private static final double MIN_EASE = 1.3;
+
+    private Card[] heap;
+    private final IdentityHashMap<Card, Integer> positions;
+    private int size;
+
+    /**
+     * ReviewScheduler constructor. Builds the heap from every card of the
+     * CardSet in O(n). From then on the CardSet keeps it up to date.
+     *
+     * @param cs CardSet to schedule.
+     */
+    ReviewScheduler(CardSet cs) {
+        this.size = cs.size();
+        this.heap = new Card[Math.max(1, size)];
+        this.positions = new IdentityHashMap<>(size);
+
+        for (int i = 0; i < size; i++) {
+            heap[i] = cs.getCard(i);
+            positions.put(heap[i], i);
+        }
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+    }
+
+    /**
+     * Returns the card that is due soonest if it is due at the given time.
+     *
+     * @param now Current time in milliseconds since the epoch.
+     * @return Card The next due card <b>or</b> null if no card is due.
+     */
+    public Card nextDue(long now) {
+        if (size == 0 || heap[0].getDue() > now) return null;
+        return heap[0];
+    }
+
+    /**
+     * Adds a card that joined the scheduled CardSet.
+     *
+     * @param c Card to schedule.
+     */
+    void add(Card c) {
+        if (size == heap.length) heap = Arrays.copyOf(heap, size + (size >> 1) + 1);
+        heap[size] = c;
+        positions.put(c, size);
+        siftUp(size++);
+    }
+
+    /**
+     * Drops a card that left the scheduled CardSet. The last card of the
+     * heap takes its slot and is moved to its place from there.
+     *
+     * @param c Card to drop. Cards that are not scheduled are ignored.
+     */
+    void remove(Card c) {
+        Integer i = positions.remove(c);
+        if (i == null) return;
+
+        Card last = heap[--size];
+        heap[size] = null;
+        if (i == size) return;
+        heap[i] = last;
+        positions.put(last, i);
+        siftUp(i);
+        siftDown(positions.get(last));
+    }
+
+    /**
+     * Moves a card to its new place in the heap after its due time changed.
+     *
+     * @param c Card whose schedule changed. Cards that are not scheduled are ignored.
+     */
+    void reschedule(Card c) {
+        Integer i = positions.get(c);
+        if (i == null) return;
+
+        siftUp(i);
+        siftDown(positions.get(c));
+    }
+
+    /**
+     * Applies an answer to a card with the SM-2 rules. Setting the new
+     * schedule tells the card's CardSet, which moves the card to its new
+     * place in the heap.
+     *
+     * @param c Card that was answered. It must belong to the scheduled CardSet.
+     * @param quality Answer quality from 0 (blackout) to 5 (perfect). 3 and above is a pass.
+     * @param now Time of the answer in milliseconds since the epoch.
+     */
+    public void answer(Card c, int quality, long now) {
+        int repetitions;
+        int interval;
+
+        if (quality >= 3) {
+            if (c.getRepetitions() == 0) {
+                interval = 1;
+            } else if (c.getRepetitions() == 1) {
+                interval = 6;
+            } else {
+                interval = (int) Math.min(Integer.MAX_VALUE, Math.round(c.getInterval() * c.getEase()));
+            }
+            repetitions = c.getRepetitions() + 1;
+        } else {
+            repetitions = 0;
+            interval = 1;
+        }
+
+        int q = 5 - quality;
+        double ease = Math.max(MIN_EASE, c.getEase() + 0.1 - q * (0.08 + q * 0.02));
+        c.setSchedule(repetitions, interval, ease, now + interval * DAY_MILLIS);
+    }
+
+    /**
+     * Moves the card at index i towards the root while it is due sooner than its parent.
+     */
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (heap[parent].getDue() <= heap[i].getDue()) return;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    /**
+     * Moves the card at index i towards the leaves while a child is due sooner.
+     */
+    private void siftDown(int i) {
+        while (true) {
+            int smallest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+
+            if (left < size && heap[left].getDue() < heap[smallest].getDue()) smallest = left;
+            if (right < size && heap[right].getDue() < heap[smallest].getDue()) smallest = right;
+            if (smallest == i) return;
+
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    /**
+     * Swaps two heap slots and updates the position index.
+     */
+    private void swap(int a, int b) {
+        Card c = heap[a];
+        heap[a] = heap[b];
+        heap[b] = c;
+        positions.put(heap[a], a);
+        positions.put(heap[b], b);
+    }
+}
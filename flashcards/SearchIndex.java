@@ -0,0 +1,215 @@
+package flashcards;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Inverted index of the words in the terms and definitions of a CardSet.
+ * Each word, case-folded, maps to the numbers of the cards that contain
+ * it. The words are kept sorted, so every word starting with a prefix is
+ * one range of the map, and scores are added up in int arrays indexed by
+ * card number, so a query costs one pass over the postings it matches.
+ *
+ * Cards are numbered in the order they were indexed, which is deck order.
+ * A removed card only loses its slot; its numbers stay in the posting
+ * lists and are skipped by queries, since taking a number out of a long
+ * list costs a scan of it. The owning CardSet rebuilds the index once
+ * removed cards outnumber the live ones.
+ */
+final class SearchIndex {
+    // Points for a query word that is a whole word, or only the start of a word, of the term or definition.
+    private static final int TERM_WORD = 4;
+    private static final int TERM_PREFIX = 2;
+    private static final int DEFINITION_WORD = 2;
+    private static final int DEFINITION_PREFIX = 1;
+    private static final int WHOLE_TERM = 8; // Extra points when the query is the whole term.
+    private static final int MIN_REBUILD = 1024;
+
+    private final TreeMap<String, Postings> termWords;
+    private final TreeMap<String, Postings> definitionWords;
+    private Card[] cards;     // Card by number, null once removed.
+    private long[] sequences; // Sequence number of each card when it was indexed, ascending.
+    private int size;
+    private int removed;
+
+    /**
+     * Growable list of card numbers.
+     */
+    private static final class Postings {
+        private int[] ids = new int[1];
+        private int size;
+
+        private void add(int id) {
+            if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+            ids[size++] = id;
+        }
+    }
+
+    /**
+     * SearchIndex constructor. Indexes every card of the CardSet.
+     *
+     * @param owner CardSet whose cards are indexed.
+     */
+    SearchIndex(CardSet owner) {
+        this.termWords = new TreeMap<>();
+        this.definitionWords = new TreeMap<>();
+        this.cards = new Card[Math.max(16, owner.size())];
+        this.sequences = new long[cards.length];
+
+        for (int i = 0; i < owner.size(); i++) {
+            add(owner.getCard(i));
+        }
+    }
+
+    /**
+     * Numbers a card and adds it to the posting list of each word of its
+     * term and definition.
+     *
+     * @param c Card that was added to the owner, after every card indexed so far.
+     */
+    void add(Card c) {
+        if (size == cards.length) {
+            cards = Arrays.copyOf(cards, size + (size >> 1));
+            sequences = Arrays.copyOf(sequences, cards.length);
+        }
+
+        int id = size++;
+        cards[id] = c;
+        sequences[id] = c.sequence;
+        post(termWords, c.getTerm(), id);
+        post(definitionWords, c.getDefinition(), id);
+    }
+
+    /**
+     * Frees the number of a removed card. Its postings stay until the
+     * index is rebuilt.
+     *
+     * @param c Card that was removed from the owner.
+     */
+    void remove(Card c) {
+        int id = Arrays.binarySearch(sequences, 0, size, c.sequence);
+        if (id >= 0 && cards[id] == c) {
+            cards[id] = null;
+            removed++;
+        }
+    }
+
+    /**
+     * Checks whether removed cards take up enough of the index that it
+     * should be rebuilt.
+     *
+     * @return boolean True if the removed cards outnumber the live ones.
+     */
+    boolean isStale() {
+        return removed > size - removed + MIN_REBUILD;
+    }
+
+    /**
+     * Adds a card number to the posting list of each distinct word of a text.
+     */
+    private static void post(TreeMap<String, Postings> words, String text, int id) {
+        for (String token : tokenize(text)) {
+            words.computeIfAbsent(token, k -> new Postings()).add(id);
+        }
+    }
+
+    /**
+     * Finds the cards whose term or definition contains every word of a
+     * query. Each query word matches the words it is a prefix of, so
+     * "deu" finds "Deutsche". Whole word matches score higher than
+     * prefix matches and term matches higher than definition matches.
+     *
+     * @param query Words to look for (IGNORES CASE).
+     * @return SearchResults The matching cards with their scores.
+     */
+    SearchResults search(String query) {
+        List<String> queryWords = tokenize(query);
+        if (queryWords.isEmpty()) return new SearchResults(new Card[0], new int[0], 0);
+
+        int[] matched = new int[size];    // Number of query words each card matched so far.
+        int[] score = new int[size];
+        int[] termBest = new int[size];   // Best score of the current query word in each field.
+        int[] definitionBest = new int[size];
+        int[] touched = new int[0];
+        int numTouched = 0;
+
+        for (int word = 1; word <= queryWords.size(); word++) {
+            String prefix = queryWords.get(word - 1);
+            int[] next = new int[64];
+            int numNext = 0;
+
+            for (int field = 0; field < 2; field++) {
+                TreeMap<String, Postings> words = field == 0 ? termWords : definitionWords;
+                int[] best = field == 0 ? termBest : definitionBest;
+
+                for (Map.Entry<String, Postings> entry : words.subMap(prefix, true, prefix + Character.MAX_VALUE, false).entrySet()) {
+                    int points = entry.getKey().equals(prefix)
+                            ? (field == 0 ? TERM_WORD : DEFINITION_WORD) : (field == 0 ? TERM_PREFIX : DEFINITION_PREFIX);
+                    Postings postings = entry.getValue();
+
+                    for (int i = 0; i < postings.size; i++) {
+                        int id = postings.ids[i];
+                        if (matched[id] != word - 1 && matched[id] != word) continue; // Missed an earlier word.
+
+                        if (matched[id] != word) {
+                            matched[id] = word;
+                            termBest[id] = 0;
+                            definitionBest[id] = 0;
+                            if (numNext == next.length) next = Arrays.copyOf(next, numNext * 2);
+                            next[numNext++] = id;
+                        }
+                        best[id] = Math.max(best[id], points);
+                    }
+                }
+            }
+
+            for (int i = 0; i < numNext; i++) {
+                score[next[i]] += termBest[next[i]] + definitionBest[next[i]];
+            }
+            touched = next;
+            numTouched = numNext;
+            if (numTouched == 0) break;
+        }
+
+        // The cards touched by the last query word matched every word.
+        Card[] found = new Card[numTouched];
+        int[] foundScores = new int[numTouched];
+        int numFound = 0;
+        String wholeQuery = query.trim();
+        for (int i = 0; i < numTouched; i++) {
+            Card c = cards[touched[i]];
+            if (c == null) continue;
+            found[numFound] = c;
+            foundScores[numFound] = score[touched[i]] + (c.getTerm().equalsIgnoreCase(wholeQuery) ? WHOLE_TERM : 0);
+            numFound++;
+        }
+        return new SearchResults(found, foundScores, numFound);
+    }
+
+    /**
+     * Splits text into case-folded words: runs of letters and digits.
+     * Each word is listed once.
+     *
+     * @param text Text to split.
+     * @return List The distinct words in order of first appearance.
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>(4);
+
+        for (int i = 0; i < text.length(); ) {
+            if (!Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+                continue;
+            }
+
+            int start = i;
+            while (i < text.length() && Character.isLetterOrDigit(text.charAt(i))) i++;
+            String token = CardSet.foldCase(text.substring(start, i));
+            if (!tokens.contains(token)) tokens.add(token);
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,78 @@
+package flashcards;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Cards found by CardSet.search, best match first and ties in deck
+ * order. The results are not sorted up front: each page picks the best
+ * cards with a bounded heap, so a query matching most of a large deck
+ * only pays for the pages that are read.
+ */
+public final class SearchResults {
+    private final Card[] cards;
+    private final int[] scores;
+    private final int size;
+
+    /**
+     * SearchResults constructor.
+     *
+     * @param cards Matching cards, in any order. The array is kept.
+     * @param scores Score of each card. The array is kept.
+     * @param size Number of results at the start of the arrays.
+     */
+    SearchResults(Card[] cards, int[] scores, int size) {
+        this.cards = cards;
+        this.scores = scores;
+        this.size = size;
+    }
+
+    /**
+     * Returns the number of matching cards.
+     *
+     * @return int The number of results.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns one page of results.
+     *
+     * @param from Rank of the first card to return, starting at 0.
+     * @param count Maximum number of cards to return.
+     * @return List The cards ranked from through from + count - 1, best first.
+     */
+    public List<Card> page(int from, int count) {
+        int end = (int) Math.min(size, (long) from + count);
+        if (from >= end) return Collections.emptyList();
+
+        // Keep the end best results, with the worst of them on top.
+        PriorityQueue<Integer> heap = new PriorityQueue<>(end, (a, b) -> compare(b, a));
+        for (int i = 0; i < size; i++) {
+            if (heap.size() < end) {
+                heap.add(i);
+            } else if (compare(i, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(i);
+            }
+        }
+
+        List<Card> page = new ArrayList<>(end - from);
+        for (int rank = end - 1; rank >= from; rank--) {
+            page.add(cards[heap.poll()]);
+        }
+        Collections.reverse(page);
+        return page;
+    }
+
+    /**
+     * Orders results by score, highest first, then in deck order.
+     */
+    private int compare(int a, int b) {
+        int byScore = Integer.compare(scores[b], scores[a]);
+        return byScore != 0 ? byScore : Long.compare(cards[a].sequence, cards[b].sequence);
+    }
+}
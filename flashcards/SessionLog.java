@@ -0,0 +1,172 @@
+package flashcards;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Transcript of everything printed and read by a FlashcardIOHandler.
+ * Entries go into a fixed-size ring buffer that a background thread
+ * drains into an append-only spill file, so the memory used by the log
+ * does not grow with the length of the session. If the writer falls
+ * behind, append waits for a free slot instead of growing the buffer.
+ */
+public final class SessionLog {
+    private static final int CAPACITY = 1024;
+
+    private final String[] ring;
+    private final String[] drained;
+    private final File spillFile;
+    private final Writer spill;
+    private final Thread writer;
+
+    private int head;     // Index of the oldest entry not yet written.
+    private int count;    // Number of entries waiting in the ring.
+    private boolean writing;
+    private boolean closed;
+    private IOException failure;
+
+    /**
+     * SessionLog constructor. Creates the spill file in the temporary
+     * directory and starts the background writer thread.
+     */
+    public SessionLog() {
+        this.ring = new String[CAPACITY];
+        this.drained = new String[CAPACITY];
+
+        try {
+            this.spillFile = File.createTempFile("flashcards-log", ".txt");
+            this.spillFile.deleteOnExit();
+            this.spill = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(spillFile, true), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create the session log spill file", e);
+        }
+
+        this.writer = new Thread(this::drainLoop, "flashcards-log-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Adds an entry to the log. Blocks only if the ring buffer is full.
+     *
+     * @param s Text to append.
+     */
+    public synchronized void append(String s) {
+        while (count == CAPACITY && !closed) {
+            awaitWriter();
+        }
+        if (closed) return;
+
+        ring[(head + count) % CAPACITY] = s;
+        count++;
+        notifyAll();
+    }
+
+    /**
+     * Copies the whole log to a file. Waits until every buffered entry has
+     * been spilled and then streams the spill file to the target, so the
+     * log is never assembled in memory.
+     *
+     * @param target File to write the log to. It is replaced if it exists.
+     * @throws IOException If the log could not be spilled or copied.
+     */
+    public void writeTo(File target) throws IOException {
+        synchronized (this) {
+            while ((count > 0 || writing) && failure == null) {
+                awaitWriter();
+            }
+            if (failure != null) throw failure;
+
+            Files.copy(spillFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Stops the writer thread after it has spilled the remaining entries
+     * and deletes the spill file.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            spill.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        spillFile.delete();
+    }
+
+    /**
+     * Background loop. Moves every waiting entry out of the ring, frees
+     * their slots, then writes and flushes them to the spill file.
+     */
+    private void drainLoop() {
+        while (true) {
+            int n;
+
+            synchronized (this) {
+                while (count == 0 && !closed) {
+                    awaitWriter();
+                }
+                if (count == 0) return;
+
+                n = count;
+                for (int i = 0; i < n; i++) {
+                    drained[i] = ring[(head + i) % CAPACITY];
+                    ring[(head + i) % CAPACITY] = null;
+                }
+                head = (head + n) % CAPACITY;
+                count = 0;
+                writing = true;
+                notifyAll();
+            }
+
+            IOException error = null;
+            try {
+                for (int i = 0; i < n; i++) {
+                    spill.write(drained[i]);
+                    drained[i] = null;
+                }
+                spill.flush();
+            } catch (IOException e) {
+                error = e;
+            }
+
+            synchronized (this) {
+                writing = false;
+                if (error != null && failure == null) failure = error;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits on this log's monitor. Must be called while holding it.
+     */
+    private void awaitWriter() {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the session log", e);
+        }
+    }
+}
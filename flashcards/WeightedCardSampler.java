@@ -0,0 +1,93 @@
+package flashcards;
+
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+
+/**
+ * Draws card indexes of a CardSet at random with a probability that grows
+ * with each card's mistakes: a card weighs its mistakes plus BASE_WEIGHT,
+ * so cards without mistakes still come up, just less often. The weights
+ * are kept in a Fenwick tree, where every node holds the sum of a range
+ * of weights ending at its index, so both drawing a card and changing a
+ * card's weight cost O(log n) instead of a pass over the deck.
+ *
+ * The sampler has its own SplittableRandom instead of sharing the
+ * CardSet's Random, so draws do not contend on a shared seed. Like the
+ * CardSet it belongs to, it is not thread-safe.
+ */
+final class WeightedCardSampler {
+    private static final int BASE_WEIGHT = 1;
+
+    private final int[] weights;  // Weight of each card by index.
+    private final long[] tree;    // Fenwick tree over weights, 1-based.
+    private final SplittableRandom rand;
+    private long total;
+
+    /**
+     * WeightedCardSampler constructor. Builds the tree in one pass over
+     * the deck.
+     *
+     * @param owner CardSet whose cards are sampled. The sampler must be dropped when its cards move.
+     */
+    WeightedCardSampler(CardSet owner) {
+        int size = owner.size();
+        this.weights = new int[size];
+        this.tree = new long[size + 1];
+        this.rand = new SplittableRandom();
+
+        for (int i = 1; i <= size; i++) {
+            weights[i - 1] = weight(owner.getCard(i - 1).getMistakes());
+            tree[i] += weights[i - 1];
+            total += weights[i - 1];
+
+            // Pass the finished range sum on to the parent node that covers it.
+            int parent = i + (i & -i);
+            if (parent <= size) tree[parent] += tree[i];
+        }
+    }
+
+    /**
+     * Changes the weight of one card after its mistakes changed.
+     *
+     * @param index Index of the card within the owner.
+     * @param mistakes The card's new number of mistakes.
+     */
+    void update(int index, int mistakes) {
+        int delta = weight(mistakes) - weights[index];
+        if (delta == 0) return;
+
+        weights[index] += delta;
+        total += delta;
+        for (int i = index + 1; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    /**
+     * Draws a card index with probability proportional to its weight.
+     * Walks down the tree from the largest power of two, skipping every
+     * range whose whole sum lies below the random target.
+     *
+     * @return int Index of the drawn card.
+     */
+    int sample() {
+        if (weights.length == 0) throw new NoSuchElementException("The deck is empty.");
+
+        long target = rand.nextLong(total);
+        int position = 0;
+        for (int step = Integer.highestOneBit(weights.length); step > 0; step >>= 1) {
+            if (position + step < tree.length && tree[position + step] <= target) {
+                position += step;
+                target -= tree[position];
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Returns the weight of a card with the given number of mistakes.
+     */
+    private static int weight(int mistakes) {
+        return mistakes + BASE_WEIGHT;
+    }
+}
@@ -0,0 +1,226 @@
+package flashcards;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Named decks kept as binary deck files in one directory, so a session
+ * can switch between subjects without importing and exporting whole
+ * files. A deck is loaded the first time it is used and stays in memory
+ * in least recently used order. Whenever a deck is used and the loaded
+ * decks hold more than maxCards cards, the least recently used ones are
+ * dropped, and each is written back to NAME.deck first if it changed
+ * since it was loaded.
+ * So many decks can be served with a memory budget that does not grow
+ * with their number.
+ *
+ * Pinned decks, such as the deck a session starts with, are never
+ * evicted or written back and do not count against the budget. The
+ * deck most recently returned by use is never evicted either, whatever
+ * its size.
+ */
+public final class Workspace {
+    public static final long DEFAULT_MAX_CARDS = 250_000;
+
+    private final File dir;
+    private final long maxCards;
+    private final LinkedHashMap<String, CardSet> loaded; // Access order: least recently used first.
+    private final Map<String, CardSet> pinned;
+
+    /**
+     * Workspace constructor. Nothing is read until a deck is used.
+     *
+     * @param dir Directory holding the NAME.deck files. Created when the first deck is written.
+     * @param maxCards Number of cards the unpinned loaded decks may hold before decks are evicted.
+     */
+    public Workspace(File dir, long maxCards) {
+        this.dir = dir;
+        this.maxCards = maxCards;
+        this.loaded = new LinkedHashMap<>(16, 0.75f, true);
+        this.pinned = new LinkedHashMap<>();
+    }
+
+    /**
+     * Checks whether a name can be used for a deck: letters, digits, '-',
+     * '_' and '.', not starting with '.', so it always names a file in the
+     * workspace directory.
+     *
+     * @param name Deck name.
+     * @return boolean True if the name is valid.
+     */
+    public static boolean isValidName(String name) {
+        if (name.isEmpty() || name.charAt(0) == '.') return false;
+
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '-' && c != '_' && c != '.') return false;
+        }
+        return true;
+    }
+
+    /**
+     * Adds a deck that lives only in memory under a name. It is never
+     * evicted or written back.
+     *
+     * @param name Deck name.
+     * @param cs The deck.
+     */
+    public void pin(String name, CardSet cs) {
+        pinned.put(name, cs);
+    }
+
+    /**
+     * Returns a deck by name, loading it from NAME.deck on first use or
+     * creating it empty if there is no such file, and marks it most
+     * recently used. Less recently used decks are evicted if the loaded
+     * decks are now over the budget.
+     *
+     * @param name Deck name, see isValidName.
+     * @return CardSet The deck.
+     * @throws IOException If the deck cannot be read, or an evicted deck cannot be written.
+     */
+    public CardSet use(String name) throws IOException {
+        if (!isValidName(name)) throw new IllegalArgumentException("Invalid deck name \"" + name + "\".");
+
+        CardSet cs = pinned.get(name);
+        if (cs != null) return cs;
+
+        cs = loaded.get(name);
+        if (cs == null) {
+            cs = new CardSet();
+            File file = deckFile(name);
+            if (file.exists()) {
+                for (Card c : BinaryDeckFormat.readCards(file)) {
+                    cs.restoreCard(c);
+                }
+            }
+            cs.markSaved();
+            loaded.put(name, cs);
+        }
+
+        evict(cs);
+        return cs;
+    }
+
+    /**
+     * Drops least recently used decks until the loaded decks fit the
+     * budget, writing back the ones that changed.
+     *
+     * @param keep Deck that must stay loaded.
+     * @throws IOException If a changed deck cannot be written.
+     */
+    private void evict(CardSet keep) throws IOException {
+        long total = 0;
+        for (CardSet cs : loaded.values()) {
+            total += cs.size();
+        }
+
+        for (Iterator<Map.Entry<String, CardSet>> it = loaded.entrySet().iterator(); total > maxCards && it.hasNext(); ) {
+            Map.Entry<String, CardSet> entry = it.next();
+            if (entry.getValue() == keep) continue;
+
+            save(entry.getKey(), entry.getValue());
+            total -= entry.getValue().size();
+            it.remove();
+        }
+    }
+
+    /**
+     * Writes a deck to NAME.deck if it changed since it was loaded or last
+     * written. The file is replaced atomically, so a failed write leaves
+     * the previous version in place.
+     *
+     * @param name Deck name.
+     * @param cs The deck.
+     * @throws IOException If the deck cannot be written.
+     */
+    private void save(String name, CardSet cs) throws IOException {
+        if (!cs.hasUnsavedChanges()) return;
+
+        Files.createDirectories(dir.toPath());
+        File tmp = new File(dir, name + ".deck.tmp");
+        BinaryDeckFormat.write(cs, tmp);
+        Files.move(tmp.toPath(), deckFile(name).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        cs.markSaved();
+    }
+
+    /**
+     * Writes every loaded deck that changed back to its file. The decks
+     * stay loaded.
+     *
+     * @return int Number of decks written.
+     * @throws IOException If a deck cannot be written.
+     */
+    public int saveAll() throws IOException {
+        int numSaved = 0;
+
+        for (Map.Entry<String, CardSet> entry : loaded.entrySet()) {
+            if (!entry.getValue().hasUnsavedChanges()) continue;
+            save(entry.getKey(), entry.getValue());
+            numSaved++;
+        }
+        return numSaved;
+    }
+
+    /**
+     * Gets the names of every deck in the workspace: pinned decks, loaded
+     * decks and the NAME.deck files in the directory.
+     *
+     * @return List The deck names in alphabetical order.
+     */
+    public List<String> getNames() {
+        TreeSet<String> names = new TreeSet<>(pinned.keySet());
+        names.addAll(loaded.keySet());
+
+        File[] files = dir.listFiles((d, n) -> n.endsWith(BinaryDeckFormat.EXTENSION));
+        if (files != null) {
+            for (File f : files) {
+                String name = f.getName().substring(0, f.getName().length() - BinaryDeckFormat.EXTENSION.length());
+                if (isValidName(name)) names.add(name);
+            }
+        }
+        return new ArrayList<>(names);
+    }
+
+    /**
+     * Returns a deck if it is in memory, without loading it or changing
+     * its place in the eviction order.
+     *
+     * @param name Deck name.
+     * @return CardSet The deck <b>or</b> null if it is not loaded.
+     */
+    public CardSet getIfLoaded(String name) {
+        CardSet cs = pinned.get(name);
+        if (cs != null) return cs;
+
+        // Iterated instead of looked up, since a lookup counts as a use in an access ordered map.
+        for (Map.Entry<String, CardSet> entry : loaded.entrySet()) {
+            if (entry.getKey().equals(name)) return entry.getValue();
+        }
+        return null;
+    }
+
+    /**
+     * Gets the directory holding the deck files.
+     *
+     * @return File The workspace directory.
+     */
+    public File getDirectory() {
+        return dir;
+    }
+
+    /**
+     * Gets the file a deck is loaded from and written to.
+     */
+    private File deckFile(String name) {
+        return new File(dir, name + BinaryDeckFormat.EXTENSION);
+    }
+}
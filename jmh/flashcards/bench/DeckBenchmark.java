@@ -0,0 +1,304 @@
+package flashcards.bench;
+
+import flashcards.Card;
+import flashcards.CardSet;
+import flashcards.CardSetSnapshot;
+import flashcards.FlashcardIOHandler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <h1>Deck Benchmarks</h1>
+ * JMH benchmarks for the core deck operations at several deck sizes.
+ * Every benchmark reports the average time per operation.
+ *
+ * Build and run with:
+ * <pre>
+ * mvn -B -Pjmh package
+ * java -jar target/benchmarks.jar -rf json -rff bench-results.json
+ * </pre>
+ * {@code -rf json} writes machine-readable results that can be compared
+ * between builds; {@code -p size=1000} restricts the run to one deck size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeckBenchmark {
+    private static final int LOOKUPS = 1024;
+    private static final int ADDS_PER_INVOCATION = 100;
+    private static final int QUESTIONS_PER_INVOCATION = 10_000;
+
+    private static final PrintStream DISCARD = new PrintStream(OutputStream.nullOutputStream());
+
+    /**
+     * A generated deck plus random lookup keys into it. Shared by every
+     * benchmark thread for a given deck size.
+     */
+    @State(Scope.Benchmark)
+    public static class Deck {
+        @Param({"1000", "100000", "1000000"})
+        public int size;
+
+        CardSet cs;
+        String[] terms;
+        String[] definitions;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            cs = SyntheticDeck.generate(size);
+            Random rand = new Random(size);
+            terms = new String[LOOKUPS];
+            definitions = new String[LOOKUPS];
+
+            for (int i = 0; i < LOOKUPS; i++) {
+                Card c = cs.getCard(rand.nextInt(size));
+                terms[i] = c.getTerm().toUpperCase();
+                definitions[i] = c.getDefinition();
+            }
+        }
+
+        /**
+         * @return int Index of the next lookup key, cycling through the keys.
+         */
+        int nextKey() {
+            next = (next + 1) & (LOOKUPS - 1);
+            return next;
+        }
+    }
+
+    /**
+     * The generated deck written to a text file, and a handler that has
+     * imported it.
+     */
+    @State(Scope.Benchmark)
+    public static class DeckFile {
+        File file;
+        FlashcardIOHandler source;
+
+        @Setup(Level.Trial)
+        public void setUp(Deck deck) throws IOException {
+            file = File.createTempFile("flashcards-bench", ".txt");
+            file.deleteOnExit();
+            writeDeck(deck.cs, file);
+            source = new FlashcardIOHandler(new Scanner(""), DISCARD);
+            source.importCardsFromFile(file.getPath());
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            source.close();
+            file.delete();
+        }
+    }
+
+    /**
+     * A private copy of the generated deck for the benchmarks that change
+     * it, so the lookups on the shared deck are not disturbed.
+     */
+    @State(Scope.Thread)
+    public static class ScratchDeck {
+        CardSet cs;
+
+        @Setup(Level.Iteration)
+        public void setUp(Deck deck) {
+            cs = new CardSet(deck.cs);
+        }
+    }
+
+    /**
+     * An empty handler to import into. A new one for every invocation, so
+     * each import starts from an empty deck, made outside the timed part.
+     * Invocation level is fine here: an import takes far longer than the
+     * setup overhead.
+     */
+    @State(Scope.Thread)
+    public static class ImportTarget {
+        FlashcardIOHandler handler;
+
+        @Setup(Level.Invocation)
+        public void setUp() {
+            handler = new FlashcardIOHandler(new Scanner(""), DISCARD);
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() {
+            handler.close();
+        }
+    }
+
+    /**
+     * A handler whose input answers every question wrongly, forever.
+     */
+    @State(Scope.Benchmark)
+    public static class Asker {
+        FlashcardIOHandler handler;
+
+        @Setup(Level.Trial)
+        public void setUp(DeckFile deckFile) {
+            String script = QUESTIONS_PER_INVOCATION + "\n" + "no idea\n".repeat(QUESTIONS_PER_INVOCATION);
+            handler = new FlashcardIOHandler(new Scanner(new RepeatingReader(script)), DISCARD);
+            handler.importCardsFromFile(deckFile.file.getPath());
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            handler.close();
+        }
+    }
+
+    @Benchmark
+    public int getCardByTerm(Deck deck) {
+        return deck.cs.getCardByTerm(deck.terms[deck.nextKey()]).getMistakes();
+    }
+
+    @Benchmark
+    public int getCardByDefinition(Deck deck) {
+        return deck.cs.getCardByDefinition(deck.definitions[deck.nextKey()]).getMistakes();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ADDS_PER_INVOCATION)
+    public void addCardRemoveCard(ScratchDeck deck) {
+        for (int i = 0; i < ADDS_PER_INVOCATION; i++) {
+            deck.cs.addCard("new term " + i, "new definition " + i, 0);
+        }
+        for (int i = 0; i < ADDS_PER_INVOCATION; i++) {
+            deck.cs.removeCard("new term " + i);
+        }
+    }
+
+    @Benchmark
+    public CardSet copyConstructor(Deck deck) {
+        return new CardSet(deck.cs);
+    }
+
+    /**
+     * The O(1) read-only alternative to copyConstructor.
+     */
+    @Benchmark
+    public int snapshot(Deck deck) {
+        try (CardSetSnapshot snapshot = deck.cs.snapshot()) {
+            return snapshot.size();
+        }
+    }
+
+    /**
+     * Adds every card of the deck to an empty CardSet, which is the
+     * indexing work of an import without the file parsing. The definition
+     * BK-tree does not exist yet, so it is not filled.
+     */
+    @Benchmark
+    public CardSet importWithoutTree(Deck deck) {
+        return fill(new CardSet(), deck.cs);
+    }
+
+    /**
+     * Like importWithoutTree, but an approximate lookup builds the BK-tree
+     * first, so every added card is also inserted into the tree.
+     */
+    @Benchmark
+    public CardSet importWithTree(Deck deck) {
+        CardSet cs = new CardSet();
+        cs.getCardByApproximateDefinition("no such definition");
+        return fill(cs, deck.cs);
+    }
+
+    @Benchmark
+    public int exportImport(DeckFile deckFile, ImportTarget target) {
+        deckFile.source.exportCardsToFile(deckFile.file.getPath());
+        return target.handler.importCardsFromFile(deckFile.file.getPath());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUESTIONS_PER_INVOCATION)
+    public void askCommand(Asker asker) {
+        asker.handler.processInput("ask");
+    }
+
+    /**
+     * Adds copies of every card of one deck to another.
+     *
+     * @param cs Deck to add to.
+     * @param source Deck to copy the cards from.
+     * @return CardSet The filled deck.
+     */
+    private static CardSet fill(CardSet cs, CardSet source) {
+        for (int i = 0; i < source.size(); i++) {
+            Card c = source.getCard(i);
+            cs.addCard(c.getTerm(), c.getDefinition(), c.getMistakes());
+        }
+        return cs;
+    }
+
+    /**
+     * Writes a deck in the text format without going through a handler.
+     *
+     * @param cs Deck to write.
+     * @param file Destination file.
+     * @throws IOException If the file cannot be written.
+     */
+    private static void writeDeck(CardSet cs, File file) throws IOException {
+        try (PrintWriter pw = new PrintWriter(file)) {
+            pw.println("TERM:DEFINITION:MISTAKES");
+            for (int i = 0; i < cs.size(); i++) {
+                Card c = cs.getCard(i);
+                pw.println(c.getTerm() + ":" + c.getDefinition() + ":" + c.getMistakes());
+            }
+        }
+    }
+
+    /**
+     * Reader that replays the same text forever. Used as a synthetic
+     * Scanner source so the ask loop can run any number of iterations.
+     */
+    static final class RepeatingReader extends Reader {
+        private final String text;
+        private int position;
+
+        RepeatingReader(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            int n = 0;
+            while (n < length) {
+                int chunk = Math.min(length - n, text.length() - position);
+                text.getChars(position, position + chunk, buffer, offset + n);
+                n += chunk;
+                position = (position + chunk) % text.length();
+            }
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
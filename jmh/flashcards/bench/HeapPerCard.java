@@ -0,0 +1,71 @@
+package flashcards.bench;
+
+import flashcards.CardSet;
+import flashcards.CardStore;
+import flashcards.CompactCardSet;
+
+import java.util.Locale;
+import java.util.function.IntFunction;
+
+/**
+ * <h1>Heap Per Card</h1>
+ * Measures the retained heap of a deck in each storage layout by
+ * comparing the used heap after a full collection before and after the
+ * deck is built. Run with a fixed heap (for example -Xms4g -Xmx4g) so the
+ * collector does not resize the heap between the two readings.
+ *
+ * Built into the benchmarks jar with mvn -B -Pjmh package and run with
+ * java -cp target/benchmarks.jar flashcards.bench.HeapPerCard.
+ *
+ * Usage: HeapPerCard [deck size]
+ * Defaults to 1000000 cards.
+ */
+public final class HeapPerCard {
+    private static final int GC_ROUNDS = 5;
+
+    /**
+     * Prints the heap per card of every layout.
+     *
+     * @param args Optional deck size.
+     */
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        measure("CardSet", size, SyntheticDeck::generate);
+        measure("CompactCardSet", size, n -> {
+            CompactCardSet compact = new CompactCardSet();
+            for (int i = 0; i < n; i++) {
+                compact.addCard("term " + i, "definition " + i, i % 7);
+            }
+            compact.trimToSize();
+            return compact;
+        });
+    }
+
+    /**
+     * Builds a deck with the given layout and prints its retained heap.
+     *
+     * @param name Layout name.
+     * @param size Number of cards.
+     * @param build Builds a deck of the given size.
+     */
+    private static void measure(String name, int size, IntFunction<CardStore> build) {
+        long before = usedHeap();
+        CardStore deck = build.apply(size);
+        long after = usedHeap();
+
+        System.out.printf(Locale.ROOT, "%-16s %10d cards %12d bytes %8.1f bytes/card%n",
+                name, deck.size(), after - before, (double) (after - before) / size);
+    }
+
+    /**
+     * Returns the used heap after a few full collections.
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < GC_ROUNDS; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,374 @@
+package flashcards.bench;
+
+import com.sun.management.ThreadMXBean;
+import flashcards.DeckExporter;
+import flashcards.FlashcardIOHandler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Scanner;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <h1>Learner Load Test</h1>
+ * Drives FlashcardIOHandler instances with simulated learners, one thread
+ * and one handler per learner, the way Main drives a handler from the
+ * console. Each learner picks commands from a weighted mix and answers
+ * every prompt through a scripted Scanner source that reads the handler's
+ * last line of output: questions are answered correctly with a set
+ * accuracy, and the other prompts get a fixed reply. Prints commands per
+ * second, command latency percentiles overall and per command, and the
+ * allocation rate of the learner threads.
+ *
+ * Every learner loads its own copy of the deck and runs WARMUP_COMMANDS
+ * before the measured run starts. Allocation is read from the JVM's
+ * per-thread counters, so it covers the handler and the scripted console
+ * but not the background threads (session log writers, metrics).
+ *
+ * Built into the benchmarks jar with mvn -B -Pjmh package and run with
+ * java -cp target/benchmarks.jar flashcards.bench.LearnerLoadTest.
+ *
+ * Usage: LearnerLoadTest [learners] [commands per learner] [deck size] [accuracy] [mix]
+ * Defaults to 64 learners, 2000 commands each, 2000 cards, 0.8 and DEFAULT_MIX.
+ * A mix is a comma separated list of command=weight, for example ask=9,search=1.
+ */
+public final class LearnerLoadTest {
+    private static final String DEFAULT_MIX = "ask=60,review=15,search=10,add=5,hardest=4,slowest=3,cardstats=3";
+    private static final String[] COMMANDS = {"ask", "review", "search", "add", "hardest", "slowest", "cardstats"};
+    private static final int QUESTIONS_PER_COMMAND = 10;
+    private static final int WARMUP_COMMANDS = 200;
+    private static final int LIST_SIZE = 10;
+
+    /**
+     * Runs the load test.
+     *
+     * @param args Optional learner count, commands per learner, deck size, answer accuracy and command mix.
+     * @throws Exception If the deck cannot be written or a learner is interrupted.
+     */
+    public static void main(String[] args) throws Exception {
+        int learners = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int commands = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int deckSize = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+        double accuracy = args.length > 3 ? Double.parseDouble(args[3]) : 0.8;
+        int[] weights = parseMix(args.length > 4 ? args[4] : DEFAULT_MIX);
+
+        File deckFile = File.createTempFile("flashcards-load", ".deck");
+        deckFile.deleteOnExit();
+        new DeckExporter(SyntheticDeck.generate(deckSize)).exportFile(deckFile);
+
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        boolean countAllocations = threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled();
+
+        long[][] latencies = new long[learners][commands];
+        byte[][] kinds = new byte[learners][commands];
+        long[] allocated = new long[learners];
+        AtomicLong questions = new AtomicLong();
+        AtomicLong failures = new AtomicLong();
+        CountDownLatch ready = new CountDownLatch(learners);
+        CountDownLatch go = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(learners);
+
+        for (int l = 0; l < learners; l++) {
+            int id = l;
+            SplittableRandom rand = new SplittableRandom(id);
+            ScriptedConsole console = new ScriptedConsole(id, rand, accuracy);
+
+            Thread learner = new Thread(() -> {
+                FlashcardIOHandler handler = new FlashcardIOHandler(new Scanner(console), new PrintStream(console.output()));
+                try {
+                    handler.importCardsFromFile(deckFile.getPath());
+                    for (int i = 0; i < WARMUP_COMMANDS; i++) {
+                        handler.processInput(nextCommand(pick(weights, rand), rand, deckSize));
+                    }
+                    long warmupQuestions = console.questions;
+
+                    ready.countDown();
+                    go.await();
+
+                    long allocatedBefore = countAllocations ? threads.getThreadAllocatedBytes(Thread.currentThread().getId()) : 0;
+                    for (int i = 0; i < commands; i++) {
+                        int kind = pick(weights, rand);
+                        String command = nextCommand(kind, rand, deckSize);
+
+                        long start = System.nanoTime();
+                        handler.processInput(command);
+                        latencies[id][i] = System.nanoTime() - start;
+                        kinds[id][i] = (byte) kind;
+                    }
+                    if (countAllocations) {
+                        allocated[id] = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocatedBefore;
+                    }
+                    questions.addAndGet(console.questions - warmupQuestions);
+                } catch (InterruptedException | RuntimeException e) {
+                    failures.incrementAndGet();
+                    ready.countDown();
+                    e.printStackTrace();
+                } finally {
+                    handler.close();
+                    done.countDown();
+                }
+            });
+            learner.start();
+        }
+
+        ready.await();
+        long start = System.nanoTime();
+        go.countDown();
+        done.await();
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+
+        report(learners, latencies, kinds, seconds, questions.get(), failures.get(),
+                countAllocations ? Arrays.stream(allocated).sum() : -1);
+    }
+
+    /**
+     * Prints the throughput, latency and allocation results.
+     */
+    private static void report(int learners, long[][] latencies, byte[][] kinds, double seconds,
+                               long questions, long failures, long allocatedBytes) {
+        long[] all = new long[latencies.length * (latencies.length == 0 ? 0 : latencies[0].length)];
+        long[][] byKind = new long[COMMANDS.length][all.length];
+        int[] numByKind = new int[COMMANDS.length];
+        int n = 0;
+        for (int l = 0; l < latencies.length; l++) {
+            for (int i = 0; i < latencies[l].length; i++) {
+                all[n++] = latencies[l][i];
+                byKind[kinds[l][i]][numByKind[kinds[l][i]]++] = latencies[l][i];
+            }
+        }
+        Arrays.sort(all);
+
+        System.out.printf(Locale.ROOT, "%d learners, %d commands (%d questions) in %.2f s: %.0f commands/sec, %.0f questions/sec, %d failed learners%n",
+                learners, all.length, questions, seconds, all.length / seconds, questions / seconds, failures);
+        if (all.length == 0) return;
+
+        System.out.printf(Locale.ROOT, "latency p50 %.3f ms, p99 %.3f ms, max %.3f ms%n",
+                percentile(all, 0.50), percentile(all, 0.99), all[all.length - 1] / 1e6);
+        if (allocatedBytes >= 0) {
+            System.out.printf(Locale.ROOT, "allocation %.1f MB/sec, %.0f bytes/command%n",
+                    allocatedBytes / seconds / (1 << 20), (double) allocatedBytes / all.length);
+        } else {
+            System.out.println("allocation not available: the JVM does not count per-thread allocation");
+        }
+
+        System.out.printf(Locale.ROOT, "  %-10s %8s %10s %10s %10s%n", "command", "count", "p50 ms", "p99 ms", "max ms");
+        for (int k = 0; k < COMMANDS.length; k++) {
+            if (numByKind[k] == 0) continue;
+            long[] sorted = Arrays.copyOf(byKind[k], numByKind[k]);
+            Arrays.sort(sorted);
+            System.out.printf(Locale.ROOT, "  %-10s %8d %10.3f %10.3f %10.3f%n", COMMANDS[k], sorted.length,
+                    percentile(sorted, 0.50), percentile(sorted, 0.99), sorted[sorted.length - 1] / 1e6);
+        }
+    }
+
+    /**
+     * Parses a command mix into a weight per entry of COMMANDS.
+     *
+     * @param mix Comma separated command=weight pairs.
+     * @return int[] Weight of each command, 0 for commands left out.
+     */
+    private static int[] parseMix(String mix) {
+        int[] weights = new int[COMMANDS.length];
+        int total = 0;
+
+        for (String entry : mix.split(",")) {
+            String[] pair = entry.trim().split("=");
+            int kind = Arrays.asList(COMMANDS).indexOf(pair[0]);
+            if (pair.length != 2 || kind < 0) {
+                throw new IllegalArgumentException("Invalid mix entry \"" + entry + "\", expected one of "
+                        + String.join(", ", COMMANDS) + " with =weight.");
+            }
+            weights[kind] = Integer.parseInt(pair[1]);
+            total += weights[kind];
+        }
+        if (total <= 0) throw new IllegalArgumentException("The mix needs at least one command with a positive weight.");
+        return weights;
+    }
+
+    /**
+     * Picks a command at random in proportion to its weight.
+     */
+    private static int pick(int[] weights, SplittableRandom rand) {
+        int total = 0;
+        for (int w : weights) {
+            total += w;
+        }
+
+        int r = rand.nextInt(total);
+        for (int k = 0; ; k++) {
+            if (r < weights[k]) return k;
+            r -= weights[k];
+        }
+    }
+
+    /**
+     * Builds the menu input for a command. Commands that name a card or a
+     * query pick one of the deck's generated cards at random.
+     */
+    private static String nextCommand(int kind, SplittableRandom rand, int deckSize) {
+        switch (COMMANDS[kind]) {
+            case "search":
+                return "search term " + rand.nextInt(deckSize);
+            case "hardest":
+                return "hardest card " + LIST_SIZE;
+            case "slowest":
+                return "slowest cards " + LIST_SIZE;
+            case "cardstats":
+                return "card stats term " + rand.nextInt(deckSize);
+            default:
+                return COMMANDS[kind];
+        }
+    }
+
+    /**
+     * Returns a percentile of sorted nanosecond latencies in milliseconds.
+     */
+    private static double percentile(long[] sorted, double p) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.floor(p * sorted.length))] / 1e6;
+    }
+
+    /**
+     * A learner's console: the handler writes to output() and reads its
+     * input from this Reader. Each read answers the last line the handler
+     * printed, one line per read, so the handler's Scanner never sees a
+     * reply before the prompt it belongs to. Lines are kept as bytes and
+     * replies are built in a reused buffer, so the console itself hardly
+     * adds to the measured allocation.
+     *
+     * The deck's cards are "term N":"definition N", so a correct answer
+     * is the term with "term" replaced by "definition". Cards the learner
+     * adds follow the same pattern.
+     */
+    static final class ScriptedConsole extends Reader {
+        private static final byte[] QUESTION = bytes("Print the definition of \"");
+        private static final byte[] ADD_TERM = bytes("The card:");
+        private static final byte[] ADD_DEFINITION = bytes("The definition of the card:");
+        private static final byte[] COUNT = bytes("How many ");
+        private static final byte[] MORE_RESULTS = bytes("Show the next results?");
+
+        private final int id;
+        private final SplittableRandom rand;
+        private final double accuracy;
+        private byte[] line = new byte[256];   // Line being printed.
+        private int lineLength;
+        private byte[] last = new byte[256];   // Last complete line printed.
+        private int lastLength;
+        private final char[] reply = new char[256];
+        private int replyLength;
+        private int replyPosition;
+        private int added;
+        long questions; // Questions answered so far. Only read by the learner's own thread.
+
+        ScriptedConsole(int id, SplittableRandom rand, double accuracy) {
+            this.id = id;
+            this.rand = rand;
+            this.accuracy = accuracy;
+        }
+
+        /**
+         * Returns the stream the handler prints to. Only the last line is kept.
+         */
+        OutputStream output() {
+            return new OutputStream() {
+                @Override
+                public void write(int b) {
+                    if (b == '\n') {
+                        byte[] swap = last;
+                        last = line;
+                        lastLength = lineLength;
+                        line = swap;
+                        lineLength = 0;
+                    } else {
+                        if (lineLength == line.length) line = Arrays.copyOf(line, lineLength * 2);
+                        line[lineLength++] = (byte) b;
+                    }
+                }
+            };
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (replyPosition == replyLength) answer();
+
+            int n = Math.min(length, replyLength - replyPosition);
+            System.arraycopy(reply, replyPosition, buffer, offset, n);
+            replyPosition += n;
+            return n;
+        }
+
+        /**
+         * Builds the reply to the last line printed, ending in a newline.
+         */
+        private void answer() {
+            replyLength = 0;
+            replyPosition = 0;
+
+            if (startsWith(QUESTION)) {
+                questions++;
+                if (rand.nextDouble() < accuracy) {
+                    // "term N" between the quotes becomes "definition N".
+                    append("definition");
+                    for (int i = QUESTION.length + "term".length(); i < lastLength && last[i] != '"'; i++) {
+                        reply[replyLength++] = (char) last[i];
+                    }
+                } else {
+                    append("no idea");
+                }
+            } else if (startsWith(ADD_DEFINITION)) {
+                append("definition ");
+                appendAddedCard();
+            } else if (startsWith(ADD_TERM)) {
+                added++;
+                append("term ");
+                appendAddedCard();
+            } else if (startsWith(COUNT)) {
+                append(Integer.toString(QUESTIONS_PER_COMMAND));
+            } else if (startsWith(MORE_RESULTS)) {
+                append("no");
+            } else {
+                append("");
+            }
+            reply[replyLength++] = '\n';
+        }
+
+        /**
+         * Appends the name of the card this learner is adding, unique among its cards.
+         */
+        private void appendAddedCard() {
+            append("learner");
+            append(Integer.toString(id));
+            append("-");
+            append(Integer.toString(added));
+        }
+
+        private void append(String s) {
+            s.getChars(0, s.length(), reply, replyLength);
+            replyLength += s.length();
+        }
+
+        private boolean startsWith(byte[] prefix) {
+            if (lastLength < prefix.length) return false;
+            for (int i = 0; i < prefix.length; i++) {
+                if (last[i] != prefix[i]) return false;
+            }
+            return true;
+        }
+
+        private static byte[] bytes(String s) {
+            return s.getBytes(StandardCharsets.US_ASCII);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
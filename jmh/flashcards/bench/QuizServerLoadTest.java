@@ -0,0 +1,124 @@
+package flashcards.bench;
+
+import flashcards.QuizServer;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <h1>Quiz Server Load Test</h1>
+ * Starts a QuizServer on a synthetic deck and drives it with many
+ * concurrent simulated learners. Each learner repeatedly asks for a card
+ * and answers it, correctly most of the time. Prints requests per second
+ * and request latency percentiles.
+ *
+ * Built into the benchmarks jar with mvn -B -Pjmh package and run with
+ * java -cp target/benchmarks.jar flashcards.bench.QuizServerLoadTest.
+ *
+ * Usage: QuizServerLoadTest [learners] [questions per learner] [deck size]
+ * Defaults to 2000 learners, 50 questions each and 10000 cards.
+ */
+public final class QuizServerLoadTest {
+    private static final double ACCURACY = 0.8;
+
+    /**
+     * Runs the load test.
+     *
+     * @param args Optional learner count, questions per learner and deck size.
+     * @throws Exception If the server cannot start or a learner is interrupted.
+     */
+    public static void main(String[] args) throws Exception {
+        int learners = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int questions = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int deckSize = args.length > 2 ? Integer.parseInt(args[2]) : 10_000;
+
+        System.setProperty("sun.net.httpserver.nodelay", "true"); // As Main does for -serve.
+        QuizServer server = new QuizServer(SyntheticDeck.generate(deckSize));
+        int port = server.start(0);
+        String base = "http://localhost:" + port;
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+        long[] latencies = new long[learners * questions * 2];
+        AtomicLong next = new AtomicLong();
+        AtomicLong failures = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(learners);
+        long start = System.nanoTime();
+
+        for (int l = 0; l < learners; l++) {
+            String user = "learner" + l;
+            SplittableRandom rand = new SplittableRandom(l);
+
+            Thread learner = new Thread(() -> {
+                try {
+                    for (int q = 0; q < questions; q++) {
+                        long t0 = System.nanoTime();
+                        String question = get(client, base + "/ask?user=" + user);
+                        long t1 = System.nanoTime();
+
+                        String term = question.substring(question.indexOf('"') + 1, question.lastIndexOf('"'));
+                        String answer = rand.nextDouble() < ACCURACY ? term.replace("term", "definition") : "no idea";
+                        post(client, base + "/answer", "user=" + user + "&answer=" + URLEncoder.encode(answer, StandardCharsets.UTF_8));
+                        long t2 = System.nanoTime();
+
+                        latencies[(int) next.getAndIncrement()] = t1 - t0;
+                        latencies[(int) next.getAndIncrement()] = t2 - t1;
+                    }
+                } catch (IOException | InterruptedException | StringIndexOutOfBoundsException e) {
+                    failures.incrementAndGet();
+                } finally {
+                    done.countDown();
+                }
+            });
+            learner.start();
+        }
+
+        done.await();
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        server.stop();
+
+        long[] recorded = Arrays.copyOf(latencies, (int) next.get());
+        Arrays.sort(recorded);
+        System.out.printf(Locale.ROOT, "%d learners, %d requests in %.2f s: %.0f requests/sec, %d failed learners%n",
+                learners, recorded.length, seconds, recorded.length / seconds, failures.get());
+        if (recorded.length > 0) {
+            System.out.printf(Locale.ROOT, "latency p50 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+                    percentile(recorded, 0.50), percentile(recorded, 0.99), recorded[recorded.length - 1] / 1e6);
+        }
+    }
+
+    /**
+     * Sends a GET request and returns the response body.
+     */
+    private static String get(HttpClient client, String uri) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(uri)).GET().build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString()).body();
+    }
+
+    /**
+     * Sends a form encoded POST request and returns the response body.
+     */
+    private static String post(HttpClient client, String uri, String form) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(uri))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(form))
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString()).body();
+    }
+
+    /**
+     * Returns a percentile of sorted nanosecond latencies in milliseconds.
+     */
+    private static double percentile(long[] sorted, double p) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.floor(p * sorted.length))] / 1e6;
+    }
+}
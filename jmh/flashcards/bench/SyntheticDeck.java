@@ -0,0 +1,28 @@
+package flashcards.bench;
+
+import flashcards.CardSet;
+
+/**
+ * Generated decks shared by the benchmarks and load tests. Card i is
+ * "term i":"definition i" with i % 7 mistakes, so a correct answer can
+ * be worked out from the term alone.
+ */
+final class SyntheticDeck {
+
+    private SyntheticDeck() {
+    }
+
+    /**
+     * Builds a deck of synthetic cards with a spread of mistake counts.
+     *
+     * @param size Number of cards.
+     * @return CardSet The generated deck.
+     */
+    static CardSet generate(int size) {
+        CardSet cs = new CardSet();
+        for (int i = 0; i < size; i++) {
+            cs.addCard("term " + i, "definition " + i, i % 7);
+        }
+        return cs;
+    }
+}